@@ -0,0 +1,166 @@
+package com.me.test;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 大量小文件组成的目录树：整棵树的复制、zip压缩和解压、格式转换以及CRC32C校验。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+
+    @Param({"200", "2000"})
+    public int files;
+
+    @Param({"4096"})
+    public int fileSize;
+
+    private Path work;
+    private Path tree;
+    private Path zip;
+    private Path tgz;
+    private int parallelism;
+    private ChecksumManifest manifest;
+    private TreeCopier copier;
+    private ParallelZipper zipper;
+    private ZipPipeline pipeline;
+    private ArchiveTranscoder transcoder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("archivebench");
+        tree = BenchmarkFiles.createTree(work.resolve("tree"), files, fileSize, new Random(BenchmarkFiles.SEED));
+        zip = work.resolve("tree.zip");
+        tgz = work.resolve("tree.tgz");
+        parallelism = Runtime.getRuntime().availableProcessors();
+        manifest = new ChecksumManifest();
+        copier = new TreeCopier();
+        zipper = new ParallelZipper();
+        pipeline = new ZipPipeline();
+        transcoder = new ArchiveTranscoder();
+        //解压、校验和转换都需要一个现成的zip包
+        try (OutputStream out = Files.newOutputStream(zip)) {
+            zipper.zip(tree, out, manifest);
+        }
+        transcoder.zipToTarGz(zip, tgz);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        transcoder.close();
+        pipeline.close();
+        zipper.close();
+        copier.close();
+        BenchmarkFiles.delete(work);
+    }
+
+    @Benchmark
+    public long copySequential() throws IOException {
+        Path target = work.resolve("tree.copy");
+        long bytes = 0;
+        try (Stream<Path> paths = Files.walk(tree)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(p)) {
+                    bytes += CopyEngine.copy(p, target.resolve(tree.relativize(p))).getBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long copyTree() throws IOException {
+        return copier.copyTree(tree, work.resolve("tree.copy")).getBytes();
+    }
+
+    @Benchmark
+    public void zipSequential() throws Exception {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(work.resolve("out.zip").toFile()))) {
+            Test.ziper(tree.toFile(), out, "");
+        }
+    }
+
+    @Benchmark
+    public void zipParallel() throws IOException {
+        try (OutputStream out = Files.newOutputStream(work.resolve("out.zip"))) {
+            zipper.zip(tree, out);
+        }
+    }
+
+    @Benchmark
+    public void zipParallelChecksum() throws IOException {
+        try (OutputStream out = Files.newOutputStream(work.resolve("out.zip"))) {
+            zipper.zip(tree, out, new ChecksumManifest());
+        }
+    }
+
+    @Benchmark
+    public void unzipSequential() throws Exception {
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip.toFile()))) {
+            Test.unziper(in, work.resolve("unzip").toString());
+        }
+    }
+
+    @Benchmark
+    public void unzipExtractor() throws IOException {
+        try (ZipExtractor extractor = new ZipExtractor(zip)) {
+            extractor.extractAll(work.resolve("unzip"), parallelism);
+        }
+    }
+
+    //只读出条目内容交给Blackhole，不写磁盘
+    @Benchmark
+    public void unzipPipeline(Blackhole bh) throws IOException {
+        bh.consume(pipeline.process(zip, (entry, data) -> data.transferTo(OutputStream.nullOutputStream())));
+    }
+
+    @Benchmark
+    public long zipToTarGz() throws IOException {
+        return transcoder.zipToTarGz(zip, work.resolve("out.tgz")).getBytes();
+    }
+
+    @Benchmark
+    public long tarGzToZip() throws IOException {
+        return transcoder.tarGzToZip(tgz, work.resolve("out.zip")).getBytes();
+    }
+
+    @Benchmark
+    public long verifyTree() throws IOException {
+        return manifest.verifyTree(tree, parallelism).getFiles();
+    }
+
+    @Benchmark
+    public long verifyZip() throws IOException {
+        return manifest.verifyZip(zip, parallelism).getFiles();
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试用的测试数据。
+ * 所有数据都由固定种子生成，不同的运行、不同的fork之间内容完全一样，结果可以直接比较。
+ */
+final class BenchmarkFiles {
+
+    static final long SEED = 20240101L;
+
+    private BenchmarkFiles() {
+    }
+
+    //一半随机、一半重复，压缩率和真实数据接近
+    static Path createFile(Path file, long size, Random random) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                for (int i = 0; i < block.length / 2; i++) {
+                    block[i] = (byte) (i % 64);
+                }
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    //files个fileSize大小的文件，分散在20x7个子目录里
+    static Path createTree(Path root, int files, int fileSize, Random random) throws IOException {
+        byte[] data = new byte[fileSize];
+        for (int i = 0; i < files; i++) {
+            Path dir = root.resolve("d" + (i % 20)).resolve("e" + (i % 7));
+            Files.createDirectories(dir);
+            random.nextBytes(data);
+            Files.write(dir.resolve("f" + i + ".bin"), data);
+        }
+        return root;
+    }
+
+    //中英文混合的文本，每行0~12个词
+    static Path createText(Path file, int lines, Random random) throws IOException {
+        String[] words = {"hello", "world", "输入", "输出", "stream", "reader", "缓冲区", "java"};
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                sb.setLength(0);
+                for (int w = random.nextInt(12); w >= 0; w--) {
+                    sb.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                out.println(sb);
+            }
+        }
+        return file;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static long size(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+}
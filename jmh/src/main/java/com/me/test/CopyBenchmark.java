@@ -0,0 +1,137 @@
+package com.me.test;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 单个文件的复制：手写缓冲区循环、CopyEngine、Files.copy、AsyncFileEngine和ChunkSync。
+ * 文件大小覆盖小文件、中等文件和大文件，手写循环另外按缓冲区大小分别测量。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CopyBenchmark {
+
+    @Param({"4096", "1048576", "134217728"})
+    public long fileSize;
+
+    private Path work;
+    private Path src;
+    private Path target;
+    private AsyncFileEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("copybench");
+        src = BenchmarkFiles.createFile(work.resolve("src.bin"), fileSize, new Random(BenchmarkFiles.SEED));
+        target = work.resolve("copy.out");
+        Files.copy(src, target);
+        engine = new AsyncFileEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        engine.close();
+        BenchmarkFiles.delete(work);
+    }
+
+    /**
+     * 手写循环使用的缓冲区大小。
+     */
+    @State(Scope.Benchmark)
+    public static class Buffer {
+
+        @Param({"1024", "8192", "65536", "262144"})
+        public int bufferSize;
+
+    }
+
+    /**
+     * 每次调用都用新的ChunkSync：摘要缓存按长度和修改时间命中，复用同一个实例时测不到分块比较。
+     */
+    @State(Scope.Thread)
+    public static class FreshSync {
+
+        ChunkSync sync;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            sync = new ChunkSync();
+        }
+    }
+
+    @Benchmark
+    public long streamLoop(Buffer buffer) throws IOException {
+        long total = 0;
+        try (InputStream in = new FileInputStream(src.toFile());
+             OutputStream out = new FileOutputStream(target.toFile())) {
+            byte[] b = new byte[buffer.bufferSize];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                out.write(b, 0, n);
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long copyEngine() throws IOException {
+        return CopyEngine.copy(src, target).getBytes();
+    }
+
+    @Benchmark
+    public long copyEngineChecksum() throws IOException {
+        return CopyEngine.copy(src, target, IoScheduler.shared().defaultJob(), ChecksumManifest.newChecksum())
+                .getBytes();
+    }
+
+    @Benchmark
+    public long copyEngineStream() throws IOException {
+        try (InputStream in = Files.newInputStream(src); OutputStream out = Files.newOutputStream(target)) {
+            return CopyEngine.copy(in, out).getBytes();
+        }
+    }
+
+    @Benchmark
+    public Path filesCopy() throws IOException {
+        return Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public long asyncFileEngine() {
+        return engine.copy(src, target).join().getBytes();
+    }
+
+    //目标和源相同时只读不写，测的是两边分块计算摘要并比较的开销
+    @Benchmark
+    public long chunkSyncUnchanged(FreshSync fresh) throws IOException {
+        return fresh.sync.sync(src, target).getWrittenBytes();
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.me.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CountInputStream相对于直接读取的额外开销，按每次read()的缓冲区大小分别测量，1表示逐字节读取。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class CountBenchmark {
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"1", "1024", "65536"})
+    public int bufferSize;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new byte[size];
+        new Random(BenchmarkFiles.SEED).nextBytes(data);
+    }
+
+    @Benchmark
+    public long plain() throws IOException {
+        return drain(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public long counted() throws IOException {
+        CountInputStream in = new CountInputStream(new ByteArrayInputStream(data));
+        drain(in);
+        return in.getCount();
+    }
+
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        if (bufferSize == 1) {
+            while (in.read() != -1) {
+                total++;
+            }
+            return total;
+        }
+        byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.me.test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UTF-8文本的解码：逐字符读取、按行读取、FastTextReader以及在内存映射上数行。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"200000", "2000000"})
+    public int lines;
+
+    private Path work;
+    private Path text;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("decodebench");
+        text = BenchmarkFiles.createText(work.resolve("text.txt"), lines, new Random(BenchmarkFiles.SEED));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(work);
+    }
+
+    @Benchmark
+    public long readerChars() throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(text.toFile()), StandardCharsets.UTF_8)) {
+            long n = 0;
+            while (reader.read() != -1) {
+                n++;
+            }
+            return n;
+        }
+    }
+
+    @Benchmark
+    public long bufferedReaderLines() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(text)) {
+            long n = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                n += line.length();
+            }
+            return n;
+        }
+    }
+
+    @Benchmark
+    public long fastTextReaderLines() throws IOException {
+        try (FastTextReader reader = FastTextReader.open(text, StandardCharsets.UTF_8)) {
+            long[] n = {0};
+            reader.forEachLine(line -> n[0] += line.length());
+            return n[0];
+        }
+    }
+
+    @Benchmark
+    public long mappedFileCountLines() throws IOException {
+        try (MappedFile file = MappedFile.open(text)) {
+            return file.reduce((byte) '\n', 0L, s -> s.count((byte) '\n'), Long::sum);
+        }
+    }
+
+}
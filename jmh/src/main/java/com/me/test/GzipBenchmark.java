@@ -0,0 +1,88 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 单个大文件的gzip压缩和解压：JDK的GZIP流和多成员并行的ParallelGZIP流。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class GzipBenchmark {
+
+    @Param({"8388608", "134217728"})
+    public long fileSize;
+
+    private Path work;
+    private Path src;
+    private Path gz;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("gzipbench");
+        src = BenchmarkFiles.createFile(work.resolve("src.bin"), fileSize, new Random(BenchmarkFiles.SEED));
+        gz = work.resolve("src.gz");
+        try (OutputStream out = new ParallelGZIPOutputStream(Files.newOutputStream(gz))) {
+            Files.copy(src, out);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(work);
+    }
+
+    @Benchmark
+    public long gzip() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(work.resolve("out.gz")), 64 * 1024)) {
+            return Files.copy(src, out);
+        }
+    }
+
+    @Benchmark
+    public long gzipParallel() throws IOException {
+        try (OutputStream out = new ParallelGZIPOutputStream(Files.newOutputStream(work.resolve("out.gz")))) {
+            return Files.copy(src, out);
+        }
+    }
+
+    @Benchmark
+    public long gunzip() throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gz), 64 * 1024)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long gunzipParallel() throws IOException {
+        try (InputStream in = new ParallelGZIPInputStream(Files.newInputStream(gz))) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.me.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 目录树的遍历：递归listFiles、Files.walk、ParallelWalker、TreeScanner和FileIndex。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ListBenchmark {
+
+    @Param({"200", "2000", "20000"})
+    public int files;
+
+    private Path work;
+    private Path tree;
+    private Path index;
+    private TreeScanner cached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("listbench");
+        tree = BenchmarkFiles.createTree(work.resolve("tree"), files, 64, new Random(BenchmarkFiles.SEED));
+        index = work.resolve("tree.idx");
+        FileIndex.build(tree, index).close();
+        cached = new TreeScanner(tree);
+        cached.scan();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cached.close();
+        BenchmarkFiles.delete(work);
+    }
+
+    @Benchmark
+    public long listFiles() {
+        return listRecursive(tree.toFile());
+    }
+
+    private static long listRecursive(File dir) {
+        long n = 0;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File f : children) {
+                n++;
+                if (f.isDirectory()) {
+                    n += listRecursive(f);
+                }
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public long filesWalk() throws IOException {
+        try (Stream<Path> paths = Files.walk(tree)) {
+            return paths.count();
+        }
+    }
+
+    @Benchmark
+    public long parallelWalker() throws IOException {
+        try (Stream<Path> paths = ParallelWalker.walk(tree)) {
+            return paths.count();
+        }
+    }
+
+    @Benchmark
+    public TreeScanner.Node treeScannerCold() throws IOException {
+        try (TreeScanner scanner = new TreeScanner(tree)) {
+            return scanner.scan();
+        }
+    }
+
+    @Benchmark
+    public TreeScanner.Node treeScannerCached() throws IOException {
+        return cached.scan();
+    }
+
+    @Benchmark
+    public int fileIndexBuild() throws IOException {
+        try (FileIndex fi = FileIndex.build(tree, work.resolve("build.idx"))) {
+            return fi.count();
+        }
+    }
+
+    @Benchmark
+    public int fileIndexOpen() throws IOException {
+        try (FileIndex fi = FileIndex.open(index)) {
+            return fi.count();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.me.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 同一批Student记录分别用Java序列化、BinaryCodec和JsonWriter/JsonReader编码和解码，比较耗时。
+ * 编码后的字节数在setUp中打印一次，可以和耗时一起比较。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"10000"})
+    public int records;
+
+    private List<Student> students;
+    private BinaryCodec<Student> codec;
+    private byte[] javaBytes;
+    private byte[] binaryBytes;
+    private byte[] jsonBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(BenchmarkFiles.SEED);
+        students = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            students.add(new Student("student-" + i, 18 + random.nextInt(10), random.nextInt(1000) / 10.0));
+        }
+        codec = BinaryCodec.of(Student.class);
+        javaBytes = javaSerialize();
+        binaryBytes = binaryEncode();
+        jsonBytes = jsonWrite();
+        System.out.printf("%n%d records: java %d bytes, binary %d bytes, json %d bytes%n",
+                records, javaBytes.length, binaryBytes.length, jsonBytes.length);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(new ArrayList<>(students));
+        }
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (Student s : students) {
+            codec.write(s, buffer);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public void binaryDecode(Blackhole bh) throws IOException {
+        InputStream in = new ByteArrayInputStream(binaryBytes);
+        for (int i = 0; i < records; i++) {
+            bh.consume(codec.read(in));
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonWrite() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(buffer)) {
+            json.writeValue(students);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public void jsonRead(Blackhole bh) throws IOException {
+        try (JsonReader json = new JsonReader(new ByteArrayInputStream(jsonBytes))) {
+            json.beginArray();
+            while (json.hasNext()) {
+                bh.consume(json.readValue(Student.class));
+            }
+            json.endArray();
+        }
+    }
+
+}
@@ -0,0 +1,689 @@
+package com.me.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * zip包和tar.gz之间的流式转换，数据不经过磁盘上的临时文件。
+ * zip -> tar.gz：逐个读出zip条目，直接写成tar格式，gzip压缩由ParallelGZIPOutputStream在线程池中并行完成。
+ * tar.gz -> zip：ParallelGZIPInputStream并行解压，tar条目的数据切成块在线程池中并行deflate，
+ * 每块以SYNC_FLUSH结束，按顺序拼接起来就是一个完整的deflate流，写成带数据描述符的zip条目。
+ * 同时在处理中的块数有上限，内存占用和条目的大小无关。
+ */
+public class ArchiveTranscoder implements AutoCloseable {
+
+    //tar -> zip时每个并行压缩的块的大小
+    static final int BLOCK_SIZE = 256 * 1024;
+    //deflate的回溯窗口，每块用前一块的末尾作为字典，压缩率和整体压缩时接近
+    private static final int DICTIONARY = 32 * 1024;
+    private static final int RECORD = 512;
+    private static final int COPY_BUFFER = 64 * 1024;
+    //流式读取zip时，长度未知的条目最多在内存中缓存这么多字节
+    static final long DEFAULT_MAX_BUFFERED = 64L * 1024 * 1024;
+
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final int window;
+    private final int level;
+    private final long maxBuffered;
+
+    public ArchiveTranscoder() {
+        this(Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ArchiveTranscoder(int parallelism, int level) {
+        this(parallelism, level, DEFAULT_MAX_BUFFERED);
+    }
+
+    /**
+     * @param maxBuffered zipToTarGz(InputStream, OutputStream)中长度未知的条目最多缓存的字节数，
+     *                    超过时转换失败，抛出IOException
+     */
+    public ArchiveTranscoder(int parallelism, int level, long maxBuffered) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (maxBuffered < 0) {
+            throw new IllegalArgumentException("maxBuffered must not be negative");
+        }
+        this.pool = Executors.newFixedThreadPool(parallelism);
+        this.parallelism = parallelism;
+        //最多有这么多个块同时在压缩或等待写出
+        this.window = parallelism * 2;
+        this.level = level;
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * zip文件转换为tar.gz文件。
+     * 条目的长度从中央目录取得，所有条目都是边解压边写出。
+     */
+    public Result zipToTarGz(Path zip, Path tgz) throws IOException {
+        long start = System.nanoTime();
+        int entries = 0;
+        long bytes = 0;
+        try (ZipFile zf = new ZipFile(zip.toFile());
+             TarWriter tar = new TarWriter(gzip(Files.newOutputStream(tgz)))) {
+            Enumeration<? extends ZipEntry> en = zf.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry e = en.nextElement();
+                try (InputStream in = zf.getInputStream(e)) {
+                    bytes += copyEntry(e, in, tar);
+                }
+                entries++;
+            }
+        }
+        return new Result(entries, bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * 读取zip流，写出tar.gz流，两个流都会被关闭。
+     * ZipOutputStream等工具写出的deflate条目在本地头中没有长度（长度在数据之后的数据描述符中），
+     * 而tar头必须先写长度，这样的条目只能先在内存中解压完整再写出，最多缓存maxBuffered个字节，
+     * 超过时抛出IOException；能拿到zip文件时用zipToTarGz(Path, Path)，不受这个限制。
+     */
+    public Result zipToTarGz(InputStream zip, OutputStream tgz) throws IOException {
+        long start = System.nanoTime();
+        int entries = 0;
+        long bytes = 0;
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(zip, COPY_BUFFER));
+             TarWriter tar = new TarWriter(gzip(tgz))) {
+            ZipEntry e;
+            while ((e = in.getNextEntry()) != null) {
+                bytes += copyEntry(e, in, tar);
+                entries++;
+            }
+        }
+        return new Result(entries, bytes, System.nanoTime() - start);
+    }
+
+    private OutputStream gzip(OutputStream out) {
+        return new ParallelGZIPOutputStream(new BufferedOutputStream(out, COPY_BUFFER), pool, parallelism,
+                ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, level);
+    }
+
+    //把一个zip条目写成tar条目，返回数据的长度
+    private long copyEntry(ZipEntry e, InputStream in, TarWriter tar) throws IOException {
+        long time = e.getTime() < 0 ? 0 : e.getTime();
+        if (e.isDirectory()) {
+            tar.putEntry(e.getName(), 0, time, true);
+            tar.closeEntry();
+            return 0;
+        }
+        if (e.getSize() < 0) {
+            //长度未知，先解压到池中的缓冲区，超过上限就放弃，不让内存无限增长
+            try (PooledByteArrayOutputStream buffer = new PooledByteArrayOutputStream()) {
+                if (buffer.readFrom(in, maxBuffered) == maxBuffered && in.read() != -1) {
+                    throw new IOException("Zip entry " + e.getName() + " has no size in its local header and exceeds "
+                            + maxBuffered + " bytes buffered in memory; transcode the zip file with zipToTarGz(Path, Path)");
+                }
+                tar.putEntry(e.getName(), buffer.size(), time, false);
+                buffer.writeTo(tar);
+                tar.closeEntry();
+                return buffer.size();
+            }
+        }
+        tar.putEntry(e.getName(), e.getSize(), time, false);
+        byte[] buf = BufferPool.shared().acquire(COPY_BUFFER);
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                tar.write(buf, 0, n);
+            }
+        } finally {
+            BufferPool.shared().release(buf);
+        }
+        tar.closeEntry();
+        return e.getSize();
+    }
+
+    //tar.gz文件转换为zip文件
+    public Result tarGzToZip(Path tgz, Path zip) throws IOException {
+        InputStream in = Files.newInputStream(tgz);
+        OutputStream out;
+        try {
+            out = Files.newOutputStream(zip);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return tarGzToZip(in, out);
+    }
+
+    /**
+     * 读取tar.gz流，写出zip流，两个流都会被关闭。
+     * 只转换普通文件和目录，符号链接、硬链接、设备文件等zip无法表示的条目被跳过。
+     */
+    public Result tarGzToZip(InputStream tgz, OutputStream zip) throws IOException {
+        long start = System.nanoTime();
+        int entries = 0;
+        long bytes = 0;
+        try (InputStream in = new ParallelGZIPInputStream(new BufferedInputStream(tgz, COPY_BUFFER), pool, parallelism);
+             OutputStream out = new BufferedOutputStream(zip, COPY_BUFFER)) {
+            TarReader tar = new TarReader(in);
+            ParallelZipper.ZipWriter writer = new ParallelZipper.ZipWriter(out);
+            TarEntry e;
+            while ((e = tar.next()) != null) {
+                if (e.directory) {
+                    writer.write(ParallelZipper.Entry.directory(e.name, e.time));
+                } else if (e.regular) {
+                    deflateEntry(e, tar, writer);
+                    bytes += e.size;
+                } else {
+                    continue;
+                }
+                entries++;
+            }
+            writer.finish();
+        }
+        return new Result(entries, bytes, System.nanoTime() - start);
+    }
+
+    //按块并行压缩一个tar条目，按顺序写入zip
+    private void deflateEntry(TarEntry e, TarReader tar, ParallelZipper.ZipWriter writer) throws IOException {
+        //每块SYNC_FLUSH会多出几个字节，长度接近4GB时预先使用ZIP64
+        boolean zip64 = e.size + (e.size >>> 8) + RECORD >= 0xFFFFFFFFL;
+        writer.beginStreamed(e.name, e.time, zip64);
+        CRC32 crc = new CRC32();
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        byte[] dictionary = null;
+        long remaining = e.size;
+        try {
+            do {
+                int n = (int) Math.min(BLOCK_SIZE, remaining);
+                byte[] input = BufferPool.shared().acquire(BLOCK_SIZE);
+                try {
+                    tar.readFully(input, 0, n);
+                } catch (IOException ex) {
+                    BufferPool.shared().release(input);
+                    throw ex;
+                }
+                crc.update(input, 0, n);
+                remaining -= n;
+                boolean last = remaining == 0;
+                byte[] dict = dictionary;
+                //压缩任务结束后会归还input，字典要在提交之前复制出来
+                dictionary = last ? null : Arrays.copyOfRange(input, Math.max(0, n - DICTIONARY), n);
+                pending.add(pool.submit(() -> deflate(input, n, dict, last)));
+                //窗口满了就按顺序写出最早的块
+                while (pending.size() > window) {
+                    writeBlock(writer, await(pending.poll()));
+                }
+            } while (remaining > 0);
+            while (!pending.isEmpty()) {
+                writeBlock(writer, await(pending.poll()));
+            }
+        } finally {
+            for (Future<Block> f : pending) {
+                f.cancel(true);
+            }
+        }
+        writer.endStreamed(crc.getValue(), e.size);
+    }
+
+    //在工作线程中压缩一块，不是最后一块时以SYNC_FLUSH结束，保证输出按字节对齐、可以直接拼接
+    private Block deflate(byte[] input, int len, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        byte[] output = BufferPool.shared().acquire(len + (len >>> 4) + 64);
+        int size = 0;
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, len);
+            if (last) {
+                deflater.finish();
+            }
+            while (true) {
+                size += deflater.deflate(output, size, output.length - size,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                if (last ? deflater.finished() : size < output.length) {
+                    return new Block(output, size);
+                }
+                //输出缓冲区写满了，换一个更大的继续
+                byte[] larger = BufferPool.shared().acquire(output.length * 2);
+                System.arraycopy(output, 0, larger, 0, size);
+                BufferPool.shared().release(output);
+                output = larger;
+            }
+        } catch (RuntimeException ex) {
+            BufferPool.shared().release(output);
+            throw ex;
+        } finally {
+            deflater.end();
+            BufferPool.shared().release(input);
+        }
+    }
+
+    private static void writeBlock(ParallelZipper.ZipWriter writer, Block b) throws IOException {
+        try {
+            writer.writeData(b.data, 0, b.length);
+        } finally {
+            BufferPool.shared().release(b.data);
+        }
+    }
+
+    private static Block await(Future<Block> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * 压缩好的一块，数组借自BufferPool。
+     */
+    private static final class Block {
+
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * tar包中的一个条目。
+     */
+    static final class TarEntry {
+
+        final String name;
+        final long size;
+        final long time;
+        final boolean directory;
+        final boolean regular;
+
+        TarEntry(String name, long size, long time, boolean directory, boolean regular) {
+            this.name = name;
+            this.size = size;
+            this.time = time;
+            this.directory = directory;
+            this.regular = regular;
+        }
+    }
+
+    /**
+     * 按POSIX ustar格式写出tar包，名字超过100字节或长度超过8GB的条目前面加一个pax扩展头。
+     * 写入的数据属于当前条目，putEntry()和closeEntry()之间写入的长度必须和声明的一致。
+     */
+    static final class TarWriter extends OutputStream {
+
+        //ustar头中11位八进制数能表示的最大值
+        private static final long MAX_OCTAL = 077777777777L;
+
+        private final OutputStream out;
+        private final byte[] header = new byte[RECORD];
+        private long size;
+        private long written;
+
+        TarWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void putEntry(String name, long size, long time, boolean directory) throws IOException {
+            name = normalize(name, directory);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 100 || size > MAX_OCTAL) {
+                StringBuilder pax = new StringBuilder();
+                if (bytes.length > 100) {
+                    pax.append(paxRecord("path", name));
+                }
+                if (size > MAX_OCTAL) {
+                    pax.append(paxRecord("size", Long.toString(size)));
+                }
+                byte[] data = pax.toString().getBytes(StandardCharsets.UTF_8);
+                writeHeader(Arrays.copyOf(bytes, Math.min(bytes.length, 100)), data.length, time, 'x');
+                out.write(data);
+                pad(data.length);
+                bytes = Arrays.copyOf(bytes, Math.min(bytes.length, 100));
+            }
+            writeHeader(bytes, directory ? 0 : size, time, directory ? '5' : '0');
+            this.size = directory ? 0 : size;
+            this.written = 0;
+        }
+
+        //pax记录的格式是"长度 键=值\n"，长度包括自身的位数
+        private static String paxRecord(String key, String value) {
+            int len = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+            int digits = Integer.toString(len).length();
+            if (Integer.toString(len + digits).length() > digits) {
+                digits++;
+            }
+            return (len + digits) + " " + key + "=" + value + "\n";
+        }
+
+        private void writeHeader(byte[] name, long size, long time, char type) throws IOException {
+            Arrays.fill(header, (byte) 0);
+            System.arraycopy(name, 0, header, 0, name.length);
+            octal(type == '5' ? 0755 : 0644, 100, 8);
+            octal(0, 108, 8);
+            octal(0, 116, 8);
+            octal(Math.min(size, MAX_OCTAL), 124, 12);
+            octal(Math.max(0, time / 1000), 136, 12);
+            header[156] = (byte) type;
+            System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+            //计算校验和时校验和字段按8个空格计算
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long sum = 0;
+            for (byte b : header) {
+                sum += b & 0xFF;
+            }
+            octal(sum, 148, 7);
+            header[155] = ' ';
+            out.write(header);
+        }
+
+        //写成以NUL结尾、前面补0的八进制数
+        private void octal(long value, int off, int len) {
+            for (int i = off + len - 2; i >= off; i--) {
+                header[i] = (byte) ('0' + (value & 7));
+                value >>>= 3;
+            }
+            header[off + len - 1] = 0;
+        }
+
+        private static String normalize(String name, boolean directory) {
+            while (name.startsWith("./") || name.startsWith("/")) {
+                name = name.substring(name.charAt(0) == '.' ? 2 : 1);
+            }
+            if (directory && !name.endsWith("/")) {
+                name += "/";
+            }
+            return name;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (written + len > size) {
+                throw new IOException("Entry data exceeds declared size " + size);
+            }
+            out.write(b, off, len);
+            written += len;
+        }
+
+        void closeEntry() throws IOException {
+            if (written != size) {
+                throw new IOException("Entry size mismatch: declared " + size + ", written " + written);
+            }
+            pad(size);
+        }
+
+        //数据补齐到512字节的整数倍
+        private void pad(long length) throws IOException {
+            int rem = (int) (length % RECORD);
+            if (rem != 0) {
+                out.write(new byte[RECORD - rem]);
+            }
+        }
+
+        //tar包以两个全0的记录结束
+        @Override
+        public void close() throws IOException {
+            try {
+                out.write(new byte[RECORD * 2]);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 顺序读取tar包，支持ustar、pax扩展头（path和size）和GNU长文件名。
+     */
+    static final class TarReader {
+
+        private final InputStream in;
+        private final byte[] header = new byte[RECORD];
+        //当前条目还没有读取的数据和补齐的字节数
+        private long remaining;
+        private int padding;
+
+        TarReader(InputStream in) {
+            this.in = in;
+        }
+
+        //读取下一个条目的头，没有更多条目时返回null
+        TarEntry next() throws IOException {
+            skip(remaining + padding);
+            remaining = 0;
+            padding = 0;
+            String longName = null;
+            long paxSize = -1;
+            while (true) {
+                if (!readHeader()) {
+                    return null;
+                }
+                char type = (char) header[156];
+                long size = number(124, 12);
+                if (type == 'x' || type == 'L') {
+                    byte[] data = new byte[Math.toIntExact(size)];
+                    readExtended(data);
+                    if (type == 'L') {
+                        longName = cString(data, 0, data.length);
+                    } else {
+                        String path = paxValue(data, "path");
+                        if (path != null) {
+                            longName = path;
+                        }
+                        String s = paxValue(data, "size");
+                        if (s != null) {
+                            paxSize = Long.parseLong(s);
+                        }
+                    }
+                    continue;
+                }
+                if (paxSize >= 0) {
+                    size = paxSize;
+                }
+                String name = longName;
+                if (name == null) {
+                    name = cString(header, 0, 100);
+                    //ustar的前缀字段
+                    if (header[257] == 'u' && header[345] != 0) {
+                        name = cString(header, 345, 155) + "/" + name;
+                    }
+                }
+                while (name.startsWith("./") && name.length() > 2) {
+                    name = name.substring(2);
+                }
+                long time = number(136, 12) * 1000;
+                boolean directory = type == '5' || (type == '0' || type == 0) && name.endsWith("/");
+                boolean regular = !directory && (type == '0' || type == 0 || type == '7');
+                //目录和链接的长度字段没有对应的数据
+                long data = type == '1' || type == '2' || type == '5' ? 0 : size;
+                remaining = data;
+                padding = (int) ((RECORD - data % RECORD) % RECORD);
+                if (type == 'g' || ".".equals(name) || "./".equals(name)) {
+                    //全局pax头和根目录本身
+                    skip(remaining + padding);
+                    remaining = 0;
+                    padding = 0;
+                    longName = null;
+                    paxSize = -1;
+                    continue;
+                }
+                return new TarEntry(name, regular ? size : 0, time, directory, regular);
+            }
+        }
+
+        private boolean readHeader() throws IOException {
+            int n = in.readNBytes(header, 0, RECORD);
+            if (n == 0) {
+                return false;
+            }
+            if (n < RECORD) {
+                throw new EOFException("Truncated tar header");
+            }
+            boolean zero = true;
+            long sum = 0;
+            for (int i = 0; i < RECORD; i++) {
+                int b = header[i] & 0xFF;
+                zero &= b == 0;
+                sum += i >= 148 && i < 156 ? ' ' : b;
+            }
+            if (zero) {
+                //结束标记
+                return false;
+            }
+            if (sum != number(148, 8)) {
+                throw new IOException("Bad tar header checksum");
+            }
+            return true;
+        }
+
+        //读取当前条目的数据，正好读len个字节
+        void readFully(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("Read past end of tar entry");
+            }
+            if (in.readNBytes(b, off, len) < len) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= len;
+        }
+
+        //读取pax扩展头或GNU长文件名的数据
+        private void readExtended(byte[] b) throws IOException {
+            if (in.readNBytes(b, 0, b.length) < b.length) {
+                throw new EOFException("Truncated tar entry");
+            }
+            skip((RECORD - b.length % RECORD) % RECORD);
+        }
+
+        private void skip(long n) throws IOException {
+            while (n > 0) {
+                long k = in.skip(n);
+                if (k <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Truncated tar entry");
+                    }
+                    k = 1;
+                }
+                n -= k;
+            }
+        }
+
+        //八进制数，或者GNU tar对大数使用的base-256编码（首字节最高位为1）
+        private long number(int off, int len) throws IOException {
+            if ((header[off] & 0x80) != 0) {
+                long v = header[off] & 0x7F;
+                for (int i = off + 1; i < off + len; i++) {
+                    v = (v << 8) | (header[i] & 0xFF);
+                }
+                return v;
+            }
+            int i = off;
+            while (i < off + len && header[i] == ' ') {
+                i++;
+            }
+            long v = 0;
+            for (; i < off + len; i++) {
+                int c = header[i];
+                if (c == 0 || c == ' ') {
+                    break;
+                }
+                if (c < '0' || c > '7') {
+                    throw new IOException("Bad octal number in tar header");
+                }
+                v = (v << 3) | (c - '0');
+            }
+            return v;
+        }
+
+        private static String cString(byte[] b, int off, int len) {
+            int end = off;
+            while (end < off + len && b[end] != 0) {
+                end++;
+            }
+            return new String(b, off, end - off, StandardCharsets.UTF_8);
+        }
+
+        private static String paxValue(byte[] data, String key) {
+            String records = new String(data, StandardCharsets.UTF_8);
+            int pos = 0;
+            while (pos < records.length()) {
+                int space = records.indexOf(' ', pos);
+                int nl = records.indexOf('\n', space);
+                if (space < 0 || nl < 0) {
+                    break;
+                }
+                String record = records.substring(space + 1, nl);
+                if (record.startsWith(key + "=")) {
+                    return record.substring(key.length() + 1);
+                }
+                pos = nl + 1;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 一次转换的结果。
+     */
+    public static final class Result {
+
+        private final int entries;
+        private final long bytes;
+        private final long nanos;
+
+        Result(int entries, long bytes, long nanos) {
+            this.entries = entries;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        //条目解压后的总长度
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("transcoded %d entries, %d bytes in %.3f ms", entries, bytes, nanos / 1_000_000.0);
+        }
+    }
+
+}
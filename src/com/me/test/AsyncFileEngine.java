@@ -0,0 +1,385 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 异步文件IO引擎。
+ * read()/write()/copy()基于AsynchronousFileChannel，等待IO完成期间不占用任何线程，
+ * 结果以CompletableFuture返回；zip()和submit()这类只能用阻塞流实现的操作，
+ * 在支持虚拟线程的JDK上每个任务一个虚拟线程，否则退化为按需创建的线程池。
+ * 同时进行的操作数有上限，超出的操作排队等待，调用方不会被阻塞。
+ */
+public class AsyncFileEngine implements AutoCloseable {
+
+    static final int DEFAULT_MAX_CONCURRENT = 1024;
+
+    private static final int CHUNK = CopyEngine.BUFFER_SIZE;
+
+    //AsynchronousFileChannel的完成回调在这个线程池中执行，回调里只做很少的工作
+    private final ExecutorService ioPool;
+    //阻塞的流式操作
+    private final ExecutorService taskPool;
+    private final boolean virtualThreads;
+    private final Semaphore permits;
+    private final Queue<Op<?>> waiting = new ConcurrentLinkedQueue<>();
+    //第一次zip()时才创建
+    private ParallelZipper zipper;
+    private volatile boolean closed;
+
+    public AsyncFileEngine() {
+        this(DEFAULT_MAX_CONCURRENT);
+    }
+
+    /**
+     * @param maxConcurrent 同时进行的IO操作的最大数量
+     */
+    public AsyncFileEngine(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        this.ioPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "async-file-io");
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        //同时进行的操作数已经有上限，按需创建的线程数也不会超过它
+        this.taskPool = virtual != null ? virtual : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "async-file-task");
+            t.setDaemon(true);
+            return t;
+        });
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor()从JDK 21开始才有，用反射调用，找不到时返回null
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    //阻塞的任务是否运行在虚拟线程上
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    //从position开始读入dst，返回读到的字节数，文件结束时为-1
+    public CompletableFuture<Integer> read(Path file, long position, ByteBuffer dst) {
+        return limit(() -> {
+            AsynchronousFileChannel ch = open(file, StandardOpenOption.READ);
+            CompletableFuture<Integer> f = new CompletableFuture<>();
+            ch.read(dst, position, null, handler(f));
+            return closeWhenDone(f, ch);
+        });
+    }
+
+    //读取整个文件
+    public CompletableFuture<byte[]> readAll(Path file) {
+        return limit(() -> {
+            AsynchronousFileChannel ch = open(file, StandardOpenOption.READ);
+            long size;
+            try {
+                size = ch.size();
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            if (size > Integer.MAX_VALUE - 8) {
+                ch.close();
+                throw new IOException("File too large: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            //读取过程中文件被截断时，只返回实际读到的部分
+            CompletableFuture<byte[]> f = readFully(ch, buffer, 0)
+                    .thenApply(n -> n == size ? buffer.array() : Arrays.copyOf(buffer.array(), n.intValue()));
+            return closeWhenDone(f, ch);
+        });
+    }
+
+    //把data写入文件（覆盖原内容），返回写入的字节数
+    public CompletableFuture<Long> write(Path file, byte[] data) {
+        return write(file, ByteBuffer.wrap(data), 0);
+    }
+
+    //从position开始写入src中剩余的全部数据，文件不存在时创建
+    public CompletableFuture<Long> write(Path file, ByteBuffer src, long position) {
+        return limit(() -> {
+            AsynchronousFileChannel ch = position == 0
+                    ? open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)
+                    : open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            return closeWhenDone(writeFully(ch, src, position, 0), ch);
+        });
+    }
+
+    //复制文件：读一块、写一块，整个过程中不占用线程；结果与CopyEngine.copy()相同
+    public CompletableFuture<CopyEngine.CopyResult> copy(Path src, Path target) {
+        return limit(() -> {
+            long start = System.nanoTime();
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            AsynchronousFileChannel in = open(src, StandardOpenOption.READ);
+            AsynchronousFileChannel out;
+            try {
+                out = open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            ByteBuffer buffer = BufferPool.shared().acquireDirect(CHUNK);
+            CompletableFuture<CopyEngine.CopyResult> f = copyFrom(in, out, buffer, 0)
+                    .thenApply(n -> new CopyEngine.CopyResult(n, System.nanoTime() - start));
+            return closeWhenDone(closeWhenDone(f, in), out).whenComplete((r, t) -> BufferPool.shared().release(buffer));
+        });
+    }
+
+    //压缩目录为zip包，ParallelZipper是阻塞的流式API，放到任务线程中执行
+    public CompletableFuture<Void> zip(Path dir, Path zipFile) {
+        return submit(() -> {
+            try (OutputStream out = Files.newOutputStream(zipFile)) {
+                zipper().zip(dir, out);
+            }
+            return null;
+        });
+    }
+
+    private synchronized ParallelZipper zipper() {
+        if (closed) {
+            throw new IllegalStateException("AsyncFileEngine is closed");
+        }
+        if (zipper == null) {
+            zipper = new ParallelZipper();
+        }
+        return zipper;
+    }
+
+    //在任务线程（可用时为虚拟线程）中执行阻塞的IO代码，同样受并发上限约束
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return limit(() -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, taskPool));
+    }
+
+    private CompletableFuture<Long> copyFrom(AsynchronousFileChannel in, AsynchronousFileChannel out,
+                                             ByteBuffer buffer, long position) {
+        CompletableFuture<Integer> r = new CompletableFuture<>();
+        buffer.clear();
+        in.read(buffer, position, null, handler(r));
+        return r.thenCompose(n -> {
+            if (n < 0) {
+                return CompletableFuture.completedFuture(position);
+            }
+            buffer.flip();
+            return writeFully(out, buffer, position, 0)
+                    .thenCompose(w -> copyFrom(in, out, buffer, position + n));
+        });
+    }
+
+    //读满buffer或者读到文件末尾，返回读到的总字节数
+    private CompletableFuture<Long> readFully(AsynchronousFileChannel ch, ByteBuffer buffer, long done) {
+        if (!buffer.hasRemaining()) {
+            return CompletableFuture.completedFuture(done);
+        }
+        CompletableFuture<Integer> r = new CompletableFuture<>();
+        ch.read(buffer, done, null, handler(r));
+        return r.thenCompose(n -> n < 0 ? CompletableFuture.completedFuture(done) : readFully(ch, buffer, done + n));
+    }
+
+    //AsynchronousFileChannel一次可能只写出一部分，循环直到全部写完
+    private CompletableFuture<Long> writeFully(AsynchronousFileChannel ch, ByteBuffer src, long position, long done) {
+        if (!src.hasRemaining()) {
+            return CompletableFuture.completedFuture(done);
+        }
+        CompletableFuture<Integer> w = new CompletableFuture<>();
+        ch.write(src, position, null, handler(w));
+        return w.thenCompose(n -> writeFully(ch, src, position + n, done + n));
+    }
+
+    private AsynchronousFileChannel open(Path file, StandardOpenOption... options) throws IOException {
+        EnumSet<StandardOpenOption> set = EnumSet.noneOf(StandardOpenOption.class);
+        Collections.addAll(set, options);
+        return AsynchronousFileChannel.open(file, set, ioPool);
+    }
+
+    private static <T> CompletableFuture<T> closeWhenDone(CompletableFuture<T> f, AsynchronousFileChannel ch) {
+        return f.whenComplete((v, t) -> {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                if (t == null) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private static CompletionHandler<Integer, Void> handler(CompletableFuture<Integer> f) {
+        return new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                f.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                f.completeExceptionally(exc);
+            }
+        };
+    }
+
+    /**
+     * 并发上限：拿到许可的操作立即开始，否则排队；任一操作结束时启动队列中的下一个。
+     * 操作总是在ioPool中启动，一连串同步完成的操作不会在回调里层层递归。
+     * close()之后的操作和还在排队的操作都以RejectedExecutionException失败。
+     */
+    private <T> CompletableFuture<T> limit(IoOperation<T> op) {
+        Op<T> o = new Op<>(op);
+        if (closed) {
+            o.fail(closedException());
+            return o.result;
+        }
+        waiting.add(o);
+        if (closed) {
+            //和close()同时发生，close()可能已经清空过队列
+            failWaiting();
+        } else {
+            drain();
+        }
+        return o.result;
+    }
+
+    private void drain() {
+        //许可和队列都可能被其他线程同时修改，所以每次拿到许可后都要重新检查队列
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Op<?> o = waiting.poll();
+            if (o == null) {
+                permits.release();
+                continue;
+            }
+            if (closed) {
+                permits.release();
+                o.fail(closedException());
+                continue;
+            }
+            try {
+                ioPool.execute(o);
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                o.fail(e);
+            }
+        }
+    }
+
+    private void failWaiting() {
+        Op<?> o;
+        while ((o = waiting.poll()) != null) {
+            o.fail(closedException());
+        }
+    }
+
+    private static RejectedExecutionException closedException() {
+        return new RejectedExecutionException("AsyncFileEngine is closed");
+    }
+
+    //排队等待许可的操作数
+    public int getQueued() {
+        return waiting.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (zipper != null) {
+                zipper.close();
+            }
+        }
+        failWaiting();
+        taskPool.shutdown();
+        ioPool.shutdown();
+    }
+
+    /**
+     * 排队中的一个操作，结束时先完成result，再归还许可启动下一个操作。
+     */
+    private final class Op<T> implements Runnable {
+
+        final IoOperation<T> op;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Op(IoOperation<T> op) {
+            this.op = op;
+        }
+
+        @Override
+        public void run() {
+            CompletableFuture<T> f;
+            try {
+                f = op.start();
+            } catch (Throwable t) {
+                f = CompletableFuture.failedFuture(t);
+            }
+            f.whenComplete((v, t) -> {
+                try {
+                    if (t != null) {
+                        result.completeExceptionally(t instanceof CompletionException && t.getCause() != null
+                                ? t.getCause() : t);
+                    } else {
+                        result.complete(v);
+                    }
+                } finally {
+                    permits.release();
+                    drain();
+                }
+            });
+        }
+
+        void fail(Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * 启动一个异步操作，可以抛出IOException。
+     */
+    @FunctionalInterface
+    private interface IoOperation<T> {
+        CompletableFuture<T> start() throws IOException;
+    }
+
+}
@@ -0,0 +1,714 @@
+package com.me.test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于字段编号的紧凑二进制序列化，用来代替ObjectOutputStream/ObjectInputStream。
+ * 每个字段写成“编号+类型”的varint标签，后面跟着varint/定长/带长度前缀的值，默认值和null不写。
+ * 每个类的字段访问器（MethodHandle）只在第一次使用时生成一次并缓存，序列化每个对象时不再反射。
+ * 每个字段都必须用@Tag给出固定的编号，缺少编号的类在创建编解码器时就会被拒绝：
+ * 声明顺序会随着增删、调整字段而改变，普通类的getDeclaredFields()顺序JVM也没有保证，不能用来编号。
+ * 编号不变时，新增字段、删除字段、调整字段顺序都不影响旧数据的读取，读到不认识的字段会直接跳过，不需要serialVersionUID。
+ * 枚举按名字写出，新增或调整枚举常量的顺序也不影响旧数据。
+ * 反序列化只会调用构造方法和字段setter，不会像ObjectInputStream那样构造任意类的对象。
+ */
+public final class BinaryCodec<T> {
+
+    /**
+     * 固定字段编号。编号一旦使用就不要再改动或复用。
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.RECORD_COMPONENT})
+    public @interface Tag {
+        int value();
+    }
+
+    //标签低3位是值的类型：varint、8字节、带长度前缀、4字节
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH = 2;
+    static final int FIXED32 = 5;
+
+    private static final ClassValue<BinaryCodec<?>> CODECS = new ClassValue<BinaryCodec<?>>() {
+        @Override
+        protected BinaryCodec<?> computeValue(Class<?> type) {
+            return new BinaryCodec<>(type, true);
+        }
+    };
+
+    //JSON按字段名读写，不需要编号，字段可以没有@Tag
+    private static final ClassValue<BinaryCodec<?>> SHAPES = new ClassValue<BinaryCodec<?>>() {
+        @Override
+        protected BinaryCodec<?> computeValue(Class<?> type) {
+            return new BinaryCodec<>(type, false);
+        }
+    };
+
+    private final Class<T> type;
+    private final Property[] properties;
+    //按编号索引的字段，用于反序列化时查找
+    private final Property[] byTag;
+    //record的规范构造方法，参数展开为Object[]；普通类则是无参构造方法
+    private final MethodHandle constructor;
+    private final boolean record;
+
+    /**
+     * 返回type的编解码器，type的每个字段都必须有@Tag，否则抛出IllegalArgumentException。
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BinaryCodec<T> of(Class<T> type) {
+        return (BinaryCodec<T>) CODECS.get(type);
+    }
+
+    //只用来列出字段、按字段构造对象（JsonWriter/JsonReader），不要求@Tag，不能用来编解码二进制数据
+    @SuppressWarnings("unchecked")
+    static <T> BinaryCodec<T> shape(Class<T> type) {
+        return (BinaryCodec<T>) SHAPES.get(type);
+    }
+
+    private BinaryCodec(Class<T> type, boolean tagged) {
+        this.type = type;
+        this.record = type.isRecord();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            List<Property> list = new ArrayList<>();
+            if (record) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] types = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    RecordComponent c = components[i];
+                    types[i] = c.getType();
+                    Tag tag = c.getAnnotation(Tag.class);
+                    MethodHandle getter = lookup.unreflect(c.getAccessor());
+                    list.add(new Property(c.getName(), tag != null ? tag.value() : 0, c.getType(), i,
+                            getter.asType(MethodType.methodType(Object.class, Object.class)), null));
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, types))
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                int index = 0;
+                for (Field f : fields(type)) {
+                    f.setAccessible(true);
+                    Tag tag = f.getAnnotation(Tag.class);
+                    list.add(new Property(f.getName(), tag != null ? tag.value() : 0, f.getType(), index,
+                            lookup.unreflectGetter(f).asType(MethodType.methodType(Object.class, Object.class)),
+                            lookup.unreflectSetter(f).asType(MethodType.methodType(void.class, Object.class, Object.class))));
+                    index++;
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            }
+            this.properties = list.toArray(new Property[0]);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot build codec for " + type.getName(), e);
+        }
+
+        if (!tagged) {
+            this.byTag = new Property[0];
+            return;
+        }
+        int maxTag = 0;
+        for (Property p : properties) {
+            if (p.tag == 0) {
+                throw new IllegalArgumentException("Missing @Tag on " + type.getName() + "." + p.name);
+            }
+            if (p.tag < 1 || p.tag > 0xFFFF) {
+                throw new IllegalArgumentException("Bad tag " + p.tag + " on " + type.getName() + "." + p.name);
+            }
+            maxTag = Math.max(maxTag, p.tag);
+        }
+        this.byTag = new Property[maxTag + 1];
+        for (Property p : properties) {
+            if (byTag[p.tag] != null) {
+                throw new IllegalArgumentException("Duplicate tag " + p.tag + " on " + type.getName());
+            }
+            byTag[p.tag] = p;
+        }
+    }
+
+    //父类在前的全部实例字段，跳过static和transient
+    private static List<Field> fields(Class<?> type) {
+        List<Field> result = new ArrayList<>();
+        if (type.getSuperclass() != null && type.getSuperclass() != Object.class) {
+            result.addAll(fields(type.getSuperclass()));
+        }
+        for (Field f : type.getDeclaredFields()) {
+            int m = f.getModifiers();
+            if (!Modifier.isStatic(m) && !Modifier.isTransient(m) && !f.isSynthetic()) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    Property[] properties() {
+        return properties;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    //编码为byte[]
+    public byte[] encode(T value) {
+        Sink sink = new Sink(64);
+        writeFields(sink, value);
+        return sink.toByteArray();
+    }
+
+    //先写varint长度再写内容，同一个流中可以连续写多个对象
+    public void write(T value, OutputStream out) throws IOException {
+        Sink sink = new Sink(64);
+        int at = sink.skipLength();
+        writeFields(sink, value);
+        sink.finishLength(at);
+        sink.writeTo(out);
+    }
+
+    public T decode(byte[] data) throws IOException {
+        return decode(data, 0, data.length);
+    }
+
+    public T decode(byte[] data, int off, int len) throws IOException {
+        return readFields(new Source(data, off, off + len));
+    }
+
+    //读取write()写入的一个对象，流已结束时返回null
+    public T read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        long len = first & 0x7F;
+        for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+            first = in.read();
+            if (first == -1 || shift > 28) {
+                throw new StreamCorruptedException("Bad length");
+            }
+            len |= (long) (first & 0x7F) << shift;
+        }
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("Object too large: " + len);
+        }
+        byte[] data = in.readNBytes((int) len);
+        if (data.length != len) {
+            throw new EOFException();
+        }
+        return decode(data);
+    }
+
+    void writeFields(Sink sink, Object value) {
+        for (Property p : properties) {
+            p.write(sink, get(p, value));
+        }
+    }
+
+    T readFields(Source src) throws IOException {
+        Object[] values = newValues();
+        while (src.hasRemaining()) {
+            int tag = (int) src.readVarint();
+            int id = tag >>> 3;
+            int wire = tag & 7;
+            Property p = id < byTag.length ? byTag[id] : null;
+            if (p == null || p.wireType != wire) {
+                //新版本增加的字段，或者类型已经改变的字段：跳过
+                src.skip(wire);
+            } else {
+                values[p.index] = p.read(src);
+            }
+        }
+        return create(values);
+    }
+
+    //按字段顺序排列的默认值，缺失的字段保持默认值
+    Object[] newValues() {
+        Object[] values = new Object[properties.length];
+        for (Property p : properties) {
+            values[p.index] = p.defaultValue;
+        }
+        return values;
+    }
+
+    //用各字段的值构造对象：record调用规范构造方法，普通类调用无参构造方法后逐个设置字段
+    @SuppressWarnings("unchecked")
+    T create(Object[] values) throws IOException {
+        try {
+            if (record) {
+                return (T) constructor.invokeExact(values);
+            }
+            Object obj = constructor.invokeExact();
+            for (Property p : properties) {
+                p.setter.invokeExact(obj, values[p.index]);
+            }
+            return (T) obj;
+        } catch (Throwable t) {
+            throw new StreamCorruptedException("Cannot create " + type.getName() + ": " + t);
+        }
+    }
+
+    //读取一个字段的值
+    Object get(Property p, Object obj) {
+        try {
+            return p.getter.invokeExact(obj);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot read " + type.getName() + "." + p.name, t);
+        }
+    }
+
+    enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, BYTES, ENUM, OBJECT
+    }
+
+    static Kind kindOf(Class<?> t) {
+        if (t == boolean.class || t == Boolean.class) {
+            return Kind.BOOLEAN;
+        } else if (t == byte.class || t == Byte.class) {
+            return Kind.BYTE;
+        } else if (t == short.class || t == Short.class) {
+            return Kind.SHORT;
+        } else if (t == char.class || t == Character.class) {
+            return Kind.CHAR;
+        } else if (t == int.class || t == Integer.class) {
+            return Kind.INT;
+        } else if (t == long.class || t == Long.class) {
+            return Kind.LONG;
+        } else if (t == float.class || t == Float.class) {
+            return Kind.FLOAT;
+        } else if (t == double.class || t == Double.class) {
+            return Kind.DOUBLE;
+        } else if (t == String.class) {
+            return Kind.STRING;
+        } else if (t == byte[].class) {
+            return Kind.BYTES;
+        } else if (t.isEnum()) {
+            return Kind.ENUM;
+        } else if (t.isArray() || t.isInterface() || t.isPrimitive() || t == Object.class) {
+            throw new IllegalArgumentException("Unsupported field type: " + t.getName());
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * 一个字段：编号、类型以及读写它的MethodHandle。
+     */
+    static final class Property {
+
+        final String name;
+        final int tag;
+        final Class<?> type;
+        final Kind kind;
+        final int wireType;
+        final int index;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        //基本类型字段缺失时的默认值
+        final Object defaultValue;
+        //枚举字段的常量，按名字索引
+        final Map<String, Object> constants;
+
+        Property(String name, int tag, Class<?> type, int index, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.tag = tag;
+            this.type = type;
+            this.kind = kindOf(type);
+            this.index = index;
+            this.getter = getter;
+            this.setter = setter;
+            this.defaultValue = type.isPrimitive() ? defaultValue(kind) : null;
+            this.constants = kind == Kind.ENUM ? constants(type) : null;
+            switch (kind) {
+                case FLOAT:
+                    wireType = FIXED32;
+                    break;
+                case DOUBLE:
+                    wireType = FIXED64;
+                    break;
+                case STRING:
+                case BYTES:
+                case ENUM:
+                case OBJECT:
+                    wireType = LENGTH;
+                    break;
+                default:
+                    wireType = VARINT;
+            }
+        }
+
+        private static Map<String, Object> constants(Class<?> type) {
+            Map<String, Object> map = new HashMap<>();
+            for (Object c : type.getEnumConstants()) {
+                map.put(((Enum<?>) c).name(), c);
+            }
+            return map;
+        }
+
+        private static Object defaultValue(Kind kind) {
+            switch (kind) {
+                case BOOLEAN:
+                    return false;
+                case BYTE:
+                    return (byte) 0;
+                case SHORT:
+                    return (short) 0;
+                case CHAR:
+                    return (char) 0;
+                case INT:
+                    return 0;
+                case LONG:
+                    return 0L;
+                case FLOAT:
+                    return 0f;
+                case DOUBLE:
+                    return 0d;
+                default:
+                    return null;
+            }
+        }
+
+        //写出一个字段值，null和基本类型的默认值不写
+        void write(Sink sink, Object v) {
+            if (v == null || v.equals(defaultValue) && type.isPrimitive()) {
+                return;
+            }
+            int header = tag << 3 | wireType;
+            switch (kind) {
+                case BOOLEAN:
+                    sink.writeVarint(header);
+                    sink.writeVarint((Boolean) v ? 1 : 0);
+                    break;
+                case BYTE:
+                case SHORT:
+                case INT:
+                case LONG:
+                    sink.writeVarint(header);
+                    sink.writeVarint(zigzag(((Number) v).longValue()));
+                    break;
+                case CHAR:
+                    sink.writeVarint(header);
+                    sink.writeVarint((Character) v);
+                    break;
+                case FLOAT:
+                    sink.writeVarint(header);
+                    sink.writeFixed32(Float.floatToIntBits((Float) v));
+                    break;
+                case DOUBLE:
+                    sink.writeVarint(header);
+                    sink.writeFixed64(Double.doubleToLongBits((Double) v));
+                    break;
+                case STRING:
+                    sink.writeVarint(header);
+                    sink.writeString((String) v);
+                    break;
+                case BYTES:
+                    sink.writeVarint(header);
+                    sink.writeVarint(((byte[]) v).length);
+                    sink.write((byte[]) v, 0, ((byte[]) v).length);
+                    break;
+                case ENUM:
+                    sink.writeVarint(header);
+                    sink.writeString(((Enum<?>) v).name());
+                    break;
+                default:
+                    sink.writeVarint(header);
+                    int start = sink.skipLength();
+                    of(type).writeFields(sink, v);
+                    sink.finishLength(start);
+            }
+        }
+
+        Object read(Source src) throws IOException {
+            switch (kind) {
+                case BOOLEAN:
+                    return src.readVarint() != 0;
+                case BYTE:
+                    return (byte) unzigzag(src.readVarint());
+                case SHORT:
+                    return (short) unzigzag(src.readVarint());
+                case CHAR:
+                    return (char) src.readVarint();
+                case INT:
+                    return (int) unzigzag(src.readVarint());
+                case LONG:
+                    return unzigzag(src.readVarint());
+                case FLOAT:
+                    return Float.intBitsToFloat(src.readFixed32());
+                case DOUBLE:
+                    return Double.longBitsToDouble(src.readFixed64());
+                case STRING:
+                    return src.readString();
+                case BYTES:
+                    return src.readBytes();
+                case ENUM:
+                    //旧版本读到新增的、或者已经删除的枚举值时当作null
+                    return constants.get(src.readString());
+                default:
+                    int len = src.readLength();
+                    Source nested = src.slice(len);
+                    return of(type).readFields(nested);
+            }
+        }
+    }
+
+    //有符号数映射为无符号数，让小的负数也只占一两个字节
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 可增长的输出缓冲区。
+     */
+    static final class Sink {
+
+        private byte[] buf;
+        private int pos;
+
+        Sink(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, pos, len);
+            pos += len;
+        }
+
+        void writeVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeFixed32(int v) {
+            ensure(4);
+            buf[pos++] = (byte) v;
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 24);
+        }
+
+        void writeFixed64(long v) {
+            writeFixed32((int) v);
+            writeFixed32((int) (v >>> 32));
+        }
+
+        //直接按UTF-8编码写入，不经过String.getBytes()
+        void writeString(String s) {
+            int len = s.length();
+            int utf8 = 0;
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    utf8++;
+                } else if (c < 0x800) {
+                    utf8 += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    utf8 += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8++;
+                } else {
+                    utf8 += 3;
+                }
+            }
+            writeVarint(utf8);
+            ensure(utf8);
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | c >> 6);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | cp >> 18);
+                    buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    //单独的代理字符，和String.getBytes()一样替换为'?'
+                    buf[pos++] = '?';
+                } else {
+                    buf[pos++] = (byte) (0xE0 | c >> 12);
+                    buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buf[pos++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        //先预留1字节的长度，写完内容后再回填
+        int skipLength() {
+            ensure(1);
+            return pos++;
+        }
+
+        void finishLength(int at) {
+            int len = pos - at - 1;
+            int extra = varintSize(len) - 1;
+            if (extra > 0) {
+                ensure(extra);
+                System.arraycopy(buf, at + 1, buf, at + 1 + extra, len);
+                pos += extra;
+            }
+            long v = len;
+            int p = at;
+            while ((v & ~0x7FL) != 0) {
+                buf[p++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[p] = (byte) v;
+        }
+
+        static int varintSize(long v) {
+            int n = 1;
+            while ((v & ~0x7FL) != 0) {
+                v >>>= 7;
+                n++;
+            }
+            return n;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, pos);
+        }
+    }
+
+    /**
+     * byte[]上的读取游标。
+     */
+    static final class Source {
+
+        private final byte[] buf;
+        private int pos;
+        private final int limit;
+
+        Source(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasRemaining() {
+            return pos < limit;
+        }
+
+        private void require(int n) throws EOFException {
+            if (limit - pos < n) {
+                throw new EOFException("Truncated data");
+            }
+        }
+
+        long readVarint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new StreamCorruptedException("Bad varint");
+        }
+
+        int readFixed32() throws IOException {
+            require(4);
+            int v = (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 | (buf[pos + 2] & 0xFF) << 16 | buf[pos + 3] << 24;
+            pos += 4;
+            return v;
+        }
+
+        long readFixed64() throws IOException {
+            return (readFixed32() & 0xFFFFFFFFL) | (long) readFixed32() << 32;
+        }
+
+        int readLength() throws IOException {
+            long len = readVarint();
+            if (len < 0 || len > limit - pos) {
+                throw new EOFException("Truncated data");
+            }
+            return (int) len;
+        }
+
+        String readString() throws IOException {
+            int len = readLength();
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        byte[] readBytes() throws IOException {
+            int len = readLength();
+            byte[] b = Arrays.copyOfRange(buf, pos, pos + len);
+            pos += len;
+            return b;
+        }
+
+        Source slice(int len) {
+            Source s = new Source(buf, pos, pos + len);
+            pos += len;
+            return s;
+        }
+
+        void skip(int wire) throws IOException {
+            switch (wire) {
+                case VARINT:
+                    readVarint();
+                    break;
+                case FIXED64:
+                    require(8);
+                    pos += 8;
+                    break;
+                case LENGTH:
+                    int len = readLength();
+                    pos += len;
+                    break;
+                case FIXED32:
+                    require(4);
+                    pos += 4;
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown wire type " + wire);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.me.test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 共享的缓冲区池，复制、压缩、解压的循环都从这里借用byte[]和直接缓冲区，用完归还，
+ * 避免每次调用都new byte[1024]造成的大量短命对象和频繁的年轻代GC。
+ * 缓冲区按2的幂分成若干大小等级（4KB ~ 4MB），每个线程先在自己的本地缓存里借还，
+ * 本地缓存满了或空了再访问全局的无锁队列。超过最大等级的请求直接分配，不进入池。
+ */
+public final class BufferPool {
+
+    static final int MIN_SHIFT = 12;
+    static final int MAX_SHIFT = 22;
+    private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    //每个线程每个等级最多缓存的缓冲区数
+    private static final int LOCAL_CAPACITY = 4;
+
+    private static final BufferPool SHARED = new BufferPool(64L * 1024 * 1024);
+
+    private final Arena heap;
+    private final Arena direct;
+    private final ThreadLocal<Cache> caches = ThreadLocal.withInitial(Cache::new);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxRetainedPerClass 每个等级在全局队列中最多保留的字节数（堆内和直接缓冲区分别计算）
+     */
+    public BufferPool(long maxRetainedPerClass) {
+        this.heap = new Arena(maxRetainedPerClass);
+        this.direct = new Arena(maxRetainedPerClass);
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    //借一个长度至少为size的byte[]，实际长度可能更大
+    public byte[] acquire(int size) {
+        int c = sizeClass(size);
+        if (c < 0) {
+            misses.increment();
+            return new byte[size];
+        }
+        Object b = caches.get().poll(false, c);
+        if (b == null) {
+            b = heap.queues[c].poll();
+            if (b != null) {
+                heap.counts[c].decrementAndGet();
+            }
+        }
+        if (b == null) {
+            misses.increment();
+            return new byte[1 << (c + MIN_SHIFT)];
+        }
+        hits.increment();
+        return (byte[]) b;
+    }
+
+    public void release(byte[] buffer) {
+        int c = exactClass(buffer.length);
+        if (c >= 0 && !caches.get().offer(false, c, buffer)) {
+            heap.offer(c, buffer);
+        }
+    }
+
+    //借一个容量至少为size的直接缓冲区，position为0，limit为size
+    public ByteBuffer acquireDirect(int size) {
+        int c = sizeClass(size);
+        if (c < 0) {
+            misses.increment();
+            return ByteBuffer.allocateDirect(size);
+        }
+        Object b = caches.get().poll(true, c);
+        if (b == null) {
+            b = direct.queues[c].poll();
+            if (b != null) {
+                direct.counts[c].decrementAndGet();
+            }
+        }
+        ByteBuffer buffer;
+        if (b == null) {
+            misses.increment();
+            buffer = ByteBuffer.allocateDirect(1 << (c + MIN_SHIFT));
+        } else {
+            hits.increment();
+            buffer = (ByteBuffer) b;
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int c = exactClass(buffer.capacity());
+        if (c >= 0 && !caches.get().offer(true, c, buffer)) {
+            direct.offer(c, buffer);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    //能容纳size的最小等级，超过最大等级时返回-1
+    static int sizeClass(int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+    }
+
+    //长度正好是某个等级的缓冲区才能放回池中
+    private static int exactClass(int capacity) {
+        int c = sizeClass(capacity);
+        return c >= 0 && 1 << (c + MIN_SHIFT) == capacity ? c : -1;
+    }
+
+    /**
+     * 全局的无锁队列，每个等级保留的字节数有上限。
+     */
+    private static final class Arena {
+
+        final ConcurrentLinkedQueue<Object>[] queues;
+        final AtomicInteger[] counts;
+        final int[] limits;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Arena(long maxRetainedPerClass) {
+            queues = new ConcurrentLinkedQueue[CLASSES];
+            counts = new AtomicInteger[CLASSES];
+            limits = new int[CLASSES];
+            for (int c = 0; c < CLASSES; c++) {
+                queues[c] = new ConcurrentLinkedQueue<>();
+                counts[c] = new AtomicInteger();
+                limits[c] = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxRetainedPerClass >> (c + MIN_SHIFT)));
+            }
+        }
+
+        void offer(int c, Object buffer) {
+            if (counts[c].incrementAndGet() <= limits[c]) {
+                queues[c].offer(buffer);
+            } else {
+                //池已满，交给GC回收
+                counts[c].decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 线程本地的缓存，借还时不需要任何同步。
+     */
+    private static final class Cache {
+
+        final Object[][] heap = new Object[CLASSES][LOCAL_CAPACITY];
+        final Object[][] direct = new Object[CLASSES][LOCAL_CAPACITY];
+        final int[] heapCount = new int[CLASSES];
+        final int[] directCount = new int[CLASSES];
+
+        Object poll(boolean isDirect, int c) {
+            Object[] stack = isDirect ? direct[c] : heap[c];
+            int[] count = isDirect ? directCount : heapCount;
+            if (count[c] == 0) {
+                return null;
+            }
+            Object b = stack[--count[c]];
+            stack[count[c]] = null;
+            return b;
+        }
+
+        boolean offer(boolean isDirect, int c, Object buffer) {
+            Object[] stack = isDirect ? direct[c] : heap[c];
+            int[] count = isDirect ? directCount : heapCount;
+            if (count[c] == LOCAL_CAPACITY) {
+                return false;
+            }
+            stack[count[c]++] = buffer;
+            return true;
+        }
+    }
+
+}
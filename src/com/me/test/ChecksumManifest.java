@@ -0,0 +1,362 @@
+package com.me.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * 文件的CRC32C摘要清单，保存在旁边的.crc32c文件中。
+ * 摘要在复制或压缩时对同一批缓冲区顺手计算（CopyEngine、TreeCopier、ParallelZipper、Test.ziper），
+ * 不需要事后再把数据读一遍；CRC32C在支持SSE4.2或ARMv8 CRC指令的CPU上由JVM直接用硬件指令计算。
+ * 清单是文本格式，每行一个文件：摘要（8位十六进制）、长度、相对路径（以/分隔），可以直接查看和比较。
+ * verifyTree()和verifyZip()按清单并行校验目录或zip包。
+ */
+public class ChecksumManifest {
+
+    static final String SUFFIX = ".crc32c";
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final String HEADER = "# crc32c size name";
+
+    //按名字排序，写出的清单稳定，可以用diff比较
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    //file旁边的清单文件：file.crc32c
+    public static Path sidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + SUFFIX);
+    }
+
+    //新建一个计算CRC32C的Checksum
+    public static Checksum newChecksum() {
+        return new CRC32C();
+    }
+
+    //记录一个文件的摘要，可以从多个线程同时调用
+    public void put(String name, long size, long crc) {
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Name contains a line break: " + name);
+        }
+        entries.put(name, new Entry(name, size, crc));
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    //写出清单，先写临时文件再替换
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (Entry e : entries.values()) {
+                out.write(String.format("%08x %d %s\n", e.crc, e.size, e.name));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ChecksumManifest read(Path file) throws IOException {
+        ChecksumManifest manifest = new ChecksumManifest();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                //名字中可能有空格，只按前两个空格切分
+                int a = line.indexOf(' ');
+                int b = a < 0 ? -1 : line.indexOf(' ', a + 1);
+                if (b < 0) {
+                    throw new IOException("Bad manifest line " + lineNo + " in " + file);
+                }
+                try {
+                    manifest.put(line.substring(b + 1), Long.parseLong(line.substring(a + 1, b)),
+                            Long.parseLong(line.substring(0, a), 16));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad manifest line " + lineNo + " in " + file, e);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    //计算一个文件的CRC32C，直接缓冲区让摘要计算也不经过堆内数组
+    static Entry digest(Path file, String name) throws IOException {
+        Checksum crc = newChecksum();
+        ByteBuffer buffer = BufferPool.shared().acquireDirect(BUFFER_SIZE);
+        long size = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            int n;
+            while ((n = ch.read(buffer)) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                size += n;
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+        return new Entry(name, size, crc.getValue());
+    }
+
+    /**
+     * 按清单并行校验dir下的文件。清单中没有的文件不检查。
+     *
+     * @param parallelism 同时校验的文件数
+     */
+    public VerifyResult verifyTree(Path dir, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Entry> expected = new ArrayList<>(entries.values());
+            List<Future<Entry>> futures = new ArrayList<>(expected.size());
+            for (Entry e : expected) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        return digest(dir.resolve(e.name), e.name);
+                    } catch (NoSuchFileException ex) {
+                        return null;
+                    }
+                }));
+            }
+            VerifyResult result = new VerifyResult();
+            for (int i = 0; i < expected.size(); i++) {
+                result.check(expected.get(i), await(futures.get(i)));
+            }
+            result.nanos = System.nanoTime() - start;
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 按清单校验zip包中的条目。条目边解压边计算摘要，不写磁盘，多个条目并行处理。
+     */
+    public VerifyResult verifyZip(Path zip, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        List<Entry> actual;
+        try (ZipPipeline pipeline = new ZipPipeline(parallelism, ZipPipeline.DEFAULT_QUEUE_CHUNKS)) {
+            actual = pipeline.process(zip, (entry, data) -> {
+                //nextChunk()返回的只读视图没有数组，CRC32C只能分小段复制后计算，这里直接读进池中的数组
+                Checksum crc = newChecksum();
+                byte[] buffer = BufferPool.shared().acquire(ZipPipeline.CHUNK);
+                long size = 0;
+                try {
+                    int n;
+                    while ((n = data.read(buffer)) != -1) {
+                        crc.update(buffer, 0, n);
+                        size += n;
+                    }
+                } finally {
+                    BufferPool.shared().release(buffer);
+                }
+                return new Entry(entry.getName(), size, crc.getValue());
+            });
+        }
+        Map<String, Entry> found = new HashMap<>();
+        for (Entry e : actual) {
+            found.put(e.name, e);
+        }
+        VerifyResult result = new VerifyResult();
+        for (Entry expected : entries.values()) {
+            result.check(expected, found.get(expected.name));
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static Entry await(Future<Entry> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 校验命令：java com.me.test.ChecksumManifest 目录、zip包或普通文件 [清单文件]
+     * 不指定清单时使用旁边的.crc32c文件，校验失败时退出码为1。
+     * 普通文件（例如Test.copyFile()复制时写出的清单）按所在的目录校验，清单中的名字是文件名。
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: ChecksumManifest <dir|zip|file> [manifest]");
+            System.exit(2);
+        }
+        Path target = Paths.get(args[0]);
+        Path file = args.length > 1 ? Paths.get(args[1]) : sidecar(target);
+        ChecksumManifest manifest = read(file);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        VerifyResult result;
+        if (Files.isDirectory(target)) {
+            result = manifest.verifyTree(target, parallelism);
+        } else if (isZip(target)) {
+            result = manifest.verifyZip(target, parallelism);
+        } else {
+            result = manifest.verifyTree(target.toAbsolutePath().getParent(), parallelism);
+        }
+        TextSink out = TextSink.stdout();
+        for (String name : result.getMismatched()) {
+            out.print("MISMATCH ").println(name);
+        }
+        for (String name : result.getMissing()) {
+            out.print("MISSING ").println(name);
+        }
+        out.println(result);
+        out.flush();
+        System.exit(result.isOk() ? 0 : 1);
+    }
+
+    //按文件头判断是不是zip包：本地文件头PK\3\4，或者空zip包的目录结尾PK\5\6
+    static boolean isZip(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && ch.read(magic) != -1) {
+                //读满4个字节
+            }
+        }
+        if (magic.hasRemaining()) {
+            return false;
+        }
+        int m = magic.getInt(0);
+        return m == 0x504B0304 || m == 0x504B0506;
+    }
+
+    /**
+     * 清单中的一个文件。
+     */
+    public static final class Entry {
+
+        final String name;
+        final long size;
+        final long crc;
+
+        Entry(String name, long size, long crc) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%08x %d %s", crc, size, name);
+        }
+    }
+
+    /**
+     * 一次校验的结果。
+     */
+    public static final class VerifyResult {
+
+        private final List<String> mismatched = new ArrayList<>();
+        private final List<String> missing = new ArrayList<>();
+        private long files;
+        private long bytes;
+        private long nanos;
+
+        void check(Entry expected, Entry actual) {
+            if (actual == null) {
+                missing.add(expected.name);
+                return;
+            }
+            files++;
+            bytes += actual.size;
+            if (actual.size != expected.size || actual.crc != expected.crc) {
+                mismatched.add(expected.name);
+            }
+        }
+
+        public boolean isOk() {
+            return mismatched.isEmpty() && missing.isEmpty();
+        }
+
+        //内容或长度与清单不符的文件
+        public List<String> getMismatched() {
+            return mismatched;
+        }
+
+        //清单中有、但目录或zip包中没有的文件
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("verified %d files, %d bytes in %.3f ms: %d mismatched, %d missing",
+                    files, bytes, nanos / 1_000_000.0, mismatched.size(), missing.size());
+        }
+    }
+
+}
@@ -0,0 +1,389 @@
+package com.me.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 增量同步文件（本地版的rsync）。
+ * 文件用滚动哈希（gear hash）按内容切分成块：块边界只取决于附近的内容，
+ * 中间改动几个字节只会影响改动处的一两个块，之后的边界会重新对齐。
+ * 每个块计算SHA-256摘要，按文件的大小和修改时间缓存，文件没变就不必重新读取。
+ * 同步时按摘要在目标文件中查找相同的块：
+ * 原地修改（没有插入、删除，块的位置不变）时只把内容不同的块写到目标文件的同一位置，IO量和改动量成正比；
+ * 有插入或删除时之后的块都移动了位置，这时在临时文件中重建目标文件，已有的块从旧的目标文件复制，
+ * 只有新的块从源文件读取，最后替换目标文件。这种情况下从源文件读取的数据量仍然和改动量成正比，
+ * 但目标文件要整个重写一遍。
+ */
+public class ChunkSync {
+
+    //块的平均大小是2^AVG_BITS字节，最小和最大大小防止块太碎或太大
+    static final int AVG_BITS = 16;
+    static final int MIN_CHUNK = 16 * 1024;
+    static final int MAX_CHUNK = 256 * 1024;
+
+    private static final long MASK = (1L << AVG_BITS) - 1;
+    private static final int CACHE_MAGIC = 0x43534E31;
+    private static final int DIGEST_SIZE = 32;
+    //每个字节值对应的随机数，固定的种子保证每次运行切出相同的块
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(0x5EED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    //摘要缓存，键是文件的绝对路径
+    private final Map<String, Manifest> cache = new ConcurrentHashMap<>();
+    private final Path cacheFile;
+
+    public ChunkSync() {
+        this.cacheFile = null;
+    }
+
+    //摘要缓存保存在cacheFile中，下次运行时可以直接使用
+    public ChunkSync(Path cacheFile) throws IOException {
+        this.cacheFile = cacheFile;
+        if (Files.exists(cacheFile)) {
+            load();
+        }
+    }
+
+    /**
+     * 把src同步到target，完成后target和src的内容、修改时间都相同。
+     * 块都在原来的位置时原地更新：位置、长度、摘要都相同的块保持不动，其余的块从src写入，最后截断到src的大小；
+     * 有相同的块移动了位置时，在临时文件中重建target，已有的块从旧的target复制，新的块从src复制。
+     * 返回结果中的写入块数和字节数是从src读取的部分。
+     */
+    public Result sync(Path src, Path target) throws IOException {
+        long start = System.nanoTime();
+        Manifest from = manifest(src);
+        Manifest to = Files.isRegularFile(target) ? manifest(target) : null;
+
+        //目标文件中已有的块：起始位置 -> 块，以及摘要 -> 块
+        Map<Long, Chunk> existing = new HashMap<>();
+        Map<ByteBuffer, Chunk> byDigest = new HashMap<>();
+        if (to != null) {
+            for (Chunk c : to.chunks) {
+                existing.put(c.offset, c);
+                byDigest.putIfAbsent(ByteBuffer.wrap(c.digest), c);
+            }
+        }
+        //只要有一个可以重用的块不在原来的位置，就说明有插入或删除，原地更新会把后面的块全部重写
+        boolean inPlace = true;
+        for (Chunk c : from.chunks) {
+            if (!same(existing.get(c.offset), c) && same(byDigest.get(ByteBuffer.wrap(c.digest)), c)) {
+                inPlace = false;
+                break;
+            }
+        }
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        int written = 0;
+        long writtenBytes = 0;
+        if (inPlace) {
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                for (Chunk c : from.chunks) {
+                    if (same(existing.get(c.offset), c)) {
+                        continue;
+                    }
+                    //源文件的数据直接传输到目标文件的同一位置
+                    transfer(in, c.offset, c.length, out, c.offset, src);
+                    written++;
+                    writtenBytes += c.length;
+                }
+                if (out.size() > from.size) {
+                    out.truncate(from.size);
+                }
+            }
+        } else {
+            Path tmp = target.resolveSibling(target.getFileName() + ".chunksync.tmp");
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                 FileChannel old = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Chunk c : from.chunks) {
+                    Chunk match = byDigest.get(ByteBuffer.wrap(c.digest));
+                    if (same(match, c)) {
+                        transfer(old, match.offset, c.length, out, c.offset, target);
+                    } else {
+                        transfer(in, c.offset, c.length, out, c.offset, src);
+                        written++;
+                        writtenBytes += c.length;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            //全部写完后再替换，中途失败时目标文件保持原样
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        //目标文件的内容现在和源文件相同，复制修改时间后它的摘要也可以直接用源文件的
+        Files.setLastModifiedTime(target, FileTime.fromMillis(from.modified));
+        BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+        cache.put(key(target), new Manifest(attrs.size(), attrs.lastModifiedTime().toMillis(), from.chunks));
+
+        return new Result(from.chunks.size(), written, from.size, writtenBytes, System.nanoTime() - start);
+    }
+
+    //长度和摘要都相同的块
+    private static boolean same(Chunk old, Chunk c) {
+        return old != null && old.length == c.length && Arrays.equals(old.digest, c.digest);
+    }
+
+    //把in中[from, from + length)的数据传输到out的at位置
+    private static void transfer(FileChannel in, long from, int length, FileChannel out, long at, Path file)
+            throws IOException {
+        long pos = 0;
+        while (pos < length) {
+            long n = in.transferTo(from + pos, length - pos, out.position(at + pos));
+            if (n <= 0) {
+                throw new IOException("File changed during sync: " + file);
+            }
+            pos += n;
+        }
+    }
+
+    //文件的块列表，大小和修改时间没变时直接使用缓存
+    public List<Chunk> chunks(Path file) throws IOException {
+        return manifest(file).chunks;
+    }
+
+    private Manifest manifest(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException(file.toString());
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        String key = key(file);
+        Manifest m = cache.get(key);
+        if (m != null && m.size == size && m.modified == modified) {
+            return m;
+        }
+        m = new Manifest(size, modified, chunk(file));
+        cache.put(key, m);
+        return m;
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    //用gear hash把文件切分成块，同时计算每块的摘要
+    static List<Chunk> chunk(Path file) throws IOException {
+        MessageDigest md = sha256();
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer buffer = BufferPool.shared().acquireDirect(1024 * 1024);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long chunkStart = 0;
+            long position = 0;
+            long hash = 0;
+            while (ch.read(buffer) != -1) {
+                buffer.flip();
+                int limit = buffer.limit();
+                int from = 0;
+                for (int i = 0; i < limit; i++) {
+                    hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+                    long len = position + i + 1 - chunkStart;
+                    if (len >= MAX_CHUNK || len >= MIN_CHUNK && (hash & MASK) == 0) {
+                        md.update(buffer.limit(i + 1).position(from));
+                        buffer.limit(limit);
+                        chunks.add(new Chunk(chunkStart, (int) len, md.digest()));
+                        chunkStart += len;
+                        from = i + 1;
+                        hash = 0;
+                    }
+                }
+                md.update(buffer.position(from));
+                position += limit;
+                buffer.clear();
+            }
+            if (position > chunkStart) {
+                chunks.add(new Chunk(chunkStart, (int) (position - chunkStart), md.digest()));
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+        return chunks;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //每个Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC) {
+                //格式不对就当作没有缓存
+                return;
+            }
+            int files = in.readInt();
+            for (int i = 0; i < files; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                int n = in.readInt();
+                List<Chunk> chunks = new ArrayList<>(n);
+                long offset = 0;
+                for (int j = 0; j < n; j++) {
+                    int length = in.readInt();
+                    byte[] digest = new byte[DIGEST_SIZE];
+                    in.readFully(digest);
+                    chunks.add(new Chunk(offset, length, digest));
+                    offset += length;
+                }
+                cache.put(key, new Manifest(size, modified, chunks));
+            }
+        }
+    }
+
+    //把摘要缓存写回cacheFile
+    public void save() throws IOException {
+        if (cacheFile == null) {
+            return;
+        }
+        Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            List<Map.Entry<String, Manifest>> entries = new ArrayList<>(cache.entrySet());
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Manifest> e : entries) {
+                Manifest m = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(m.size);
+                out.writeLong(m.modified);
+                out.writeInt(m.chunks.size());
+                for (Chunk c : m.chunks) {
+                    out.writeInt(c.length);
+                    out.write(c.digest);
+                }
+            }
+        }
+        //先写临时文件再替换，中途失败不会留下损坏的缓存
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 文件中的一个块。
+     */
+    public static final class Chunk {
+
+        final long offset;
+        final int length;
+        final byte[] digest;
+
+        Chunk(long offset, int length, byte[] digest) {
+            this.offset = offset;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public byte[] getDigest() {
+            return digest.clone();
+        }
+    }
+
+    /**
+     * 某个大小和修改时间的文件的块列表。
+     */
+    private static final class Manifest {
+
+        final long size;
+        final long modified;
+        final List<Chunk> chunks;
+
+        Manifest(long size, long modified, List<Chunk> chunks) {
+            this.size = size;
+            this.modified = modified;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * 一次同步的结果。
+     */
+    public static final class Result {
+
+        private final int chunks;
+        private final int writtenChunks;
+        private final long bytes;
+        private final long writtenBytes;
+        private final long nanos;
+
+        Result(int chunks, int writtenChunks, long bytes, long writtenBytes, long nanos) {
+            this.chunks = chunks;
+            this.writtenChunks = writtenChunks;
+            this.bytes = bytes;
+            this.writtenBytes = writtenBytes;
+            this.nanos = nanos;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getWrittenChunks() {
+            return writtenChunks;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getWrittenBytes() {
+            return writtenBytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("synced %d bytes in %.3f ms, wrote %d of %d chunks (%d bytes)",
+                    bytes, nanos / 1_000_000.0, writtenChunks, chunks, writtenBytes);
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 分层的配置：classpath中的默认配置，加上文件系统中可选的覆盖配置（同名的键以文件为准）。
+ * 合并后的结果是一个不可变的快照，读取时不加锁（Properties继承自Hashtable，每次get都要同步）；
+ * 覆盖文件发生变化时由WatchService通知，重新加载后整体替换快照，读者不会看到只加载了一半的配置。
+ * getInt()等类型化的读取在每个快照中只解析一次，之后直接返回缓存的结果。
+ */
+public class Config implements AutoCloseable {
+
+    private final String resource;
+    private final Path file;
+    private volatile Snapshot snapshot;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final WatchService watcher;
+    private final Thread watchThread;
+
+    /**
+     * @param resource classpath中的默认配置，例如"/default.properties"（总是从classpath的根开始查找），不存在时忽略
+     * @param file     文件系统中的覆盖配置，例如"./conf.properties"，不存在时忽略，之后创建也会被加载
+     */
+    public static Config load(String resource, Path file) throws IOException {
+        return new Config(resource, file, true);
+    }
+
+    //只加载一次，不监听文件变化
+    public static Config loadOnce(String resource, Path file) throws IOException {
+        return new Config(resource, file, false);
+    }
+
+    private Config(String resource, Path file, boolean watch) throws IOException {
+        this.resource = resource;
+        this.file = file == null ? null : file.toAbsolutePath().normalize();
+        this.snapshot = read(0);
+        WatchService ws = null;
+        if (watch && this.file != null && Files.isDirectory(this.file.getParent())) {
+            try {
+                ws = FileSystems.getDefault().newWatchService();
+                this.file.getParent().register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            } catch (IOException | UnsupportedOperationException e) {
+                //不能监听时只能手动调用reload()
+                ws = null;
+            }
+        }
+        this.watcher = ws;
+        if (ws != null) {
+            watchThread = new Thread(this::watch, "config-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        } else {
+            watchThread = null;
+        }
+    }
+
+    //读取两层配置，合并成新的快照
+    private Snapshot read(long version) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        if (resource != null) {
+            //默认配置通过ResourceCache读取，不必每次重新加载都经过类加载器
+            try (InputStream in = ResourceCache.shared().openStream(resource)) {
+                if (in != null) {
+                    merge(values, in);
+                }
+            }
+        }
+        if (file != null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                merge(values, in);
+            } catch (NoSuchFileException e) {
+                //覆盖配置是可选的
+            }
+        }
+        return new Snapshot(version, values);
+    }
+
+    //配置文件按UTF-8读取，不再使用Properties.load(InputStream)默认的ISO-8859-1
+    private static void merge(Map<String, String> values, InputStream in) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IllegalArgumentException e) {
+            //错误的Unicode转义
+            throw new IOException("Malformed properties: " + e.getMessage(), e);
+        }
+        for (String key : props.stringPropertyNames()) {
+            values.put(key, props.getProperty(key));
+        }
+    }
+
+    private void watch() {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    //OVERFLOW时不知道丢了哪些事件，当作发生了变化
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | RuntimeException e) {
+                        //文件写到一半或者格式错误时保留原来的配置，监听线程继续工作
+                        e.printStackTrace();
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //close()
+        }
+    }
+
+    //重新加载，整体替换快照并通知监听器
+    public synchronized void reload() throws IOException {
+        Snapshot next = read(snapshot.version + 1);
+        if (next.values.equals(snapshot.values)) {
+            return;
+        }
+        snapshot = next;
+        for (Consumer<Snapshot> l : listeners) {
+            //一个监听器出错不影响其他监听器
+            try {
+                l.accept(next);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    //配置重新加载后调用listener
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    //当前的快照；需要一致地读取多个值时，先取得快照再从快照中读取
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public String get(String key) {
+        return snapshot.get(key);
+    }
+
+    public String get(String key, String defaultValue) {
+        return snapshot.get(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return snapshot.getInt(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return snapshot.getLong(key, defaultValue);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        return snapshot.getDouble(key, defaultValue);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot.getBoolean(key, defaultValue);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watchThread.interrupt();
+        }
+    }
+
+    /**
+     * 某一时刻的完整配置，创建之后不再改变。
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final Map<String, String> values;
+        //键 -> 解析后的值，快照不变，所以结果可以一直缓存
+        private final ConcurrentHashMap<String, Parsed> parsed = new ConcurrentHashMap<>();
+
+        Snapshot(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+        }
+
+        //每次重新加载加1
+        public long getVersion() {
+            return version;
+        }
+
+        public Set<String> keys() {
+            return values.keySet();
+        }
+
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        public String get(String key, String defaultValue) {
+            return values.getOrDefault(key, defaultValue);
+        }
+
+        public int getInt(String key, int defaultValue) {
+            Integer v = parse(key, Integer.class, s -> Integer.valueOf(s.trim()));
+            return v != null ? v : defaultValue;
+        }
+
+        public long getLong(String key, long defaultValue) {
+            Long v = parse(key, Long.class, s -> Long.valueOf(s.trim()));
+            return v != null ? v : defaultValue;
+        }
+
+        public double getDouble(String key, double defaultValue) {
+            Double v = parse(key, Double.class, s -> Double.valueOf(s.trim()));
+            return v != null ? v : defaultValue;
+        }
+
+        public boolean getBoolean(String key, boolean defaultValue) {
+            Boolean v = parse(key, Boolean.class, Snapshot::parseBoolean);
+            return v != null ? v : defaultValue;
+        }
+
+        /**
+         * 按parser解析并缓存，键不存在时返回null；同一个键通常只按一种类型读取，缓存只保留最后一种。
+         * 值不合法时抛出IllegalArgumentException。
+         */
+        public <T> T parse(String key, Class<T> type, Function<String, ? extends T> parser) {
+            Parsed p = parsed.get(key);
+            if (p != null && p.type == type) {
+                return type.cast(p.value);
+            }
+            String s = values.get(key);
+            if (s == null) {
+                return null;
+            }
+            T value;
+            try {
+                value = parser.apply(s);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid " + type.getSimpleName() + " for " + key + ": " + s, e);
+            }
+            parsed.put(key, new Parsed(type, value));
+            return value;
+        }
+
+        private static Boolean parseBoolean(String s) {
+            switch (s.trim().toLowerCase(Locale.ROOT)) {
+                case "true":
+                case "yes":
+                case "on":
+                case "1":
+                    return Boolean.TRUE;
+                case "false":
+                case "no":
+                case "off":
+                case "0":
+                    return Boolean.FALSE;
+                default:
+                    throw new IllegalArgumentException("Not a boolean: " + s);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Config#" + version + new TreeMap<>(values);
+        }
+    }
+
+    private static final class Parsed {
+
+        final Class<?> type;
+        final Object value;
+
+        Parsed(Class<?> type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ * 文件复制引擎。
+ * 两端都是普通文件时走 FileChannel.transferTo()（零拷贝，数据不经过用户态），
+ * 否则退化为从BufferPool借用的大块直接缓冲区（DirectByteBuffer）循环读写。
+ * 每次复制都返回复制的字节数与吞吐量。
+ * 每一块读写都先向IoScheduler的作业申请，没有指定作业时使用共享调度器的默认作业。
+ */
+public class CopyEngine {
+
+    //流复制使用的缓冲区大小，远大于原来的1KB，减少系统调用次数
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    //transferTo()单次调用最多传输的字节数，部分平台单次调用超过2GB会被截断
+    private static final long MAX_TRANSFER = 64L * 1024 * 1024;
+
+    private CopyEngine() {
+    }
+
+    //复制文件，两端都是普通文件时使用零拷贝
+    public static CopyResult copy(Path src, Path target) throws IOException {
+        return copy(src, target, IoScheduler.shared().defaultJob());
+    }
+
+    //复制文件，读写受job的限速和优先级控制
+    public static CopyResult copy(Path src, Path target, IoScheduler.Job job) throws IOException {
+        return copy(src, target, job, null);
+    }
+
+    /**
+     * 复制文件，同时用读进来的缓冲区计算摘要，不需要复制完再读一遍。
+     * checksum不为null时数据要经过用户态，不能走零拷贝。
+     *
+     * @param checksum 复制的内容会依次更新到这里，可以为null
+     */
+    public static CopyResult copy(Path src, Path target, IoScheduler.Job job, Checksum checksum)
+            throws IOException {
+        if (!Files.isRegularFile(src)) {
+            throw new IOException("Not a file: " + src);
+        }
+        //为目标文件创建目录
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long bytes;
+            //目标是设备、管道等特殊文件时不能用零拷贝
+            if (checksum == null && Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)) {
+                bytes = transfer(in, out, job);
+            } else {
+                bytes = pump(in, out, job, checksum);
+            }
+            return new CopyResult(bytes, System.nanoTime() - start);
+        }
+    }
+
+    //复制任意流，使用直接缓冲区
+    public static CopyResult copy(InputStream in, OutputStream out) throws IOException {
+        return copy(in, out, IoScheduler.shared().defaultJob());
+    }
+
+    public static CopyResult copy(InputStream in, OutputStream out, IoScheduler.Job job) throws IOException {
+        long start = System.nanoTime();
+        long bytes = pump(Channels.newChannel(in), Channels.newChannel(out), job, null);
+        return new CopyResult(bytes, System.nanoTime() - start);
+    }
+
+    //零拷贝：数据直接在内核中从源文件传输到目标文件
+    static long transfer(FileChannel in, FileChannel out, IoScheduler.Job job) throws IOException {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+            //限速的作业每次只传一小块，避免一次拿走几秒的额度
+            long chunk = job.quantum(Math.min(MAX_TRANSFER, size - position));
+            job.acquire(chunk);
+            long n = 0;
+            try {
+                n = in.transferTo(position, chunk, out);
+                job.count(n);
+            } finally {
+                job.release(chunk - Math.max(n, 0));
+            }
+            if (n <= 0) {
+                //文件在复制过程中被截断
+                break;
+            }
+            position += n;
+        }
+        //文件在复制过程中变长了，剩下的部分按普通方式读完
+        if (position == size) {
+            in.position(position);
+            position += pump(in, out, job, null);
+        }
+        return position;
+    }
+
+    //通过缓冲区读写，直到读完为止；checksum不为null时顺便计算摘要
+    static long pump(ReadableByteChannel in, WritableByteChannel out, IoScheduler.Job job, Checksum checksum)
+            throws IOException {
+        //直接缓冲区从共享池借用，同一线程反复复制时拿到的是同一块
+        ByteBuffer buffer = BufferPool.shared().acquireDirect(BUFFER_SIZE);
+        try {
+            int quantum = (int) job.quantum(BUFFER_SIZE);
+            long total = 0;
+            while (true) {
+                buffer.limit(quantum);
+                job.acquire(quantum);
+                int n = -1;
+                try {
+                    n = in.read(buffer);
+                    if (n > 0) {
+                        buffer.flip();
+                        if (checksum != null) {
+                            //直接缓冲区上的CRC32C由硬件指令计算，算完退回开头再写出
+                            checksum.update(buffer);
+                            buffer.rewind();
+                        }
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        job.count(n);
+                    }
+                } finally {
+                    job.release(quantum - Math.max(n, 0));
+                }
+                if (n == -1) {
+                    break;
+                }
+                buffer.clear();
+                total += n;
+            }
+            return total;
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    /**
+     * 一次复制的结果：字节数、耗时和吞吐量。
+     */
+    public static final class CopyResult {
+
+        private final long bytes;
+        private final long nanos;
+
+        CopyResult(long bytes, long nanos) {
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        //吞吐量，单位MB/s
+        public double getThroughput() {
+            if (nanos <= 0) {
+                return 0;
+            }
+            return bytes / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("copied %d bytes in %.3f ms (%.2f MB/s)",
+                    bytes, nanos / 1_000_000.0, getThroughput());
+        }
+    }
+
+}
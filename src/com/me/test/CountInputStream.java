@@ -0,0 +1,70 @@
+package com.me.test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+//统计读取字节数的FilterInputStream。
+//计数用LongAdder，多个线程共享同一个流也不会少算，超过2GB也不会溢出；
+//同时把每次read()的字节数和耗时记录到IoMetrics，可以通过JMX查看吞吐量和延迟分布。
+class CountInputStream extends FilterInputStream {
+
+    private final LongAdder count = new LongAdder();
+    private final IoMetrics metrics;
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int n = in.read();
+        metrics.record(n != -1 ? 1 : 0, System.nanoTime() - start);
+        if (n != -1) {
+            this.count.increment();
+        }
+        return n;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = in.read(b, off, len);
+        metrics.record(n, System.nanoTime() - start);
+        if (n != -1) {
+            this.count.add(n);
+        }
+        return n;
+    }
+
+    /**
+     * Creates a <code>FilterInputStream</code>
+     * by assigning the  argument <code>in</code>
+     * to the field <code>this.in</code> so as
+     * to remember it for later use.
+     *
+     * @param in the underlying input stream, or <code>null</code> if
+     *           this instance is to be created without an underlying stream.
+     */
+    protected CountInputStream(InputStream in) {    //传入需要包装的InputStream
+        this(in, new IoMetrics());
+    }
+
+    //多个流可以共享同一个IoMetrics，汇总统计
+    protected CountInputStream(InputStream in, IoMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public IoMetrics getMetrics() {
+        return metrics;
+    }
+
+}
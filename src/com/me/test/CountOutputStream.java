@@ -0,0 +1,48 @@
+package com.me.test;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+//统计写入字节数的FilterOutputStream，和CountInputStream对应
+class CountOutputStream extends FilterOutputStream {
+
+    private final LongAdder count = new LongAdder();
+    private final IoMetrics metrics;
+
+    protected CountOutputStream(OutputStream out) {
+        this(out, new IoMetrics());
+    }
+
+    protected CountOutputStream(OutputStream out, IoMetrics metrics) {
+        super(out);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        metrics.record(1, System.nanoTime() - start);
+        this.count.increment();
+    }
+
+    //FilterOutputStream默认逐个字节写入，这里必须直接调用底层的批量写
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        metrics.record(len, System.nanoTime() - start);
+        this.count.add(len);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public IoMetrics getMetrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 批量解码的Reader。
+ * FileReader/InputStreamReader逐个read()字符时，每个字符都要经过一次虚方法调用和加锁。
+ * 这里直接从大块的直接缓冲区（或者内存映射的MappedByteBuffer）用CharsetDecoder解码到复用的CharBuffer，
+ * 对ASCII字节走单独的快速路径，还可以按行或按分隔符遍历记录，每行不需要创建String。
+ */
+public class FastTextReader extends Reader {
+
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    //UTF-8、US-ASCII、ISO-8859-1中小于0x80的字节就是对应的字符
+    private final boolean asciiCompatible;
+    private final ByteBuffer bytes;
+    private final CharBuffer chars;
+    //跨越两次解码的行先复制到这里
+    private CharBuffer carry = CharBuffer.allocate(256);
+    private boolean eof;
+    private boolean flushed;
+    private boolean closed;
+
+    //从文件读取，文件大小不受2GB限制
+    public static FastTextReader open(Path file, Charset charset) throws IOException {
+        return new FastTextReader(FileChannel.open(file, StandardOpenOption.READ), charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FastTextReader(ReadableByteChannel channel, Charset charset, int bufferSize) {
+        this.channel = channel;
+        this.decoder = newDecoder(charset);
+        this.asciiCompatible = isAsciiCompatible(charset);
+        //直接缓冲区借自BufferPool，close()时归还
+        this.bytes = BufferPool.shared().acquireDirect(bufferSize);
+        this.bytes.flip();
+        this.chars = CharBuffer.allocate(bufferSize);
+        this.chars.flip();
+    }
+
+    //直接解码一个已经在内存中的缓冲区，例如FileChannel.map()得到的MappedByteBuffer
+    public FastTextReader(ByteBuffer data, Charset charset) {
+        this.channel = null;
+        this.decoder = newDecoder(charset);
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.bytes = data.slice();
+        this.chars = CharBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.chars.flip();
+        this.eof = true;
+    }
+
+    private static CharsetDecoder newDecoder(Charset charset) {
+        //和InputStreamReader一样，非法字节替换为U+FFFD
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    //解码下一块字符，结果放在chars中；返回false表示已经读完
+    private boolean fill() throws IOException {
+        chars.clear();
+        if (flushed) {
+            chars.flip();
+            return false;
+        }
+        while (chars.hasRemaining()) {
+            if (asciiCompatible) {
+                copyAscii();
+            }
+            CoderResult r = decoder.decode(bytes, chars, eof);
+            if (r.isOverflow()) {
+                break;
+            }
+            if (r.isError()) {
+                r.throwException();
+            }
+            //输入不足：需要读入更多字节
+            if (eof) {
+                if (!flushed) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+                break;
+            }
+            bytes.compact();
+            int n = channel.read(bytes);
+            bytes.flip();
+            if (n < 0) {
+                eof = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    //ASCII快速路径：连续的单字节字符直接转换，不经过解码器
+    private void copyAscii() {
+        int n = Math.min(bytes.remaining(), chars.remaining());
+        int bp = bytes.position();
+        char[] ca = chars.array();
+        int cp = chars.arrayOffset() + chars.position();
+        int i = 0;
+        while (i < n) {
+            byte b = bytes.get(bp + i);
+            if (b < 0) {
+                break;
+            }
+            ca[cp + i] = (char) b;
+            i++;
+        }
+        bytes.position(bp + i);
+        chars.position(chars.position() + i);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chars.remaining());
+        chars.get(cbuf, off, n);
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return chars.get();
+    }
+
+    //返回下一块已解码的字符，直到下次读取之前有效；读完时返回null
+    public CharBuffer readChunk() throws IOException {
+        if (!chars.hasRemaining() && !fill()) {
+            return null;
+        }
+        CharBuffer chunk = chars.slice();
+        chars.position(chars.limit());
+        return chunk;
+    }
+
+    //按行遍历，行尾的\r\n或\n不包含在内
+    public void forEachLine(Consumer<? super CharSequence> action) throws IOException {
+        forEachRecord('\n', line -> {
+            CharBuffer cb = (CharBuffer) line;
+            if (cb.hasRemaining() && cb.get(cb.limit() - 1) == '\r') {
+                cb.limit(cb.limit() - 1);
+            }
+            action.accept(cb);
+        });
+    }
+
+    /**
+     * 按分隔符遍历记录。
+     * 传给action的CharSequence是复用的视图，只在回调期间有效，需要保留时请调用toString()。
+     */
+    public void forEachRecord(char delimiter, Consumer<? super CharSequence> action) throws IOException {
+        //共享chars底层数组的视图，每条记录只调整position和limit
+        CharBuffer view = chars.duplicate();
+        carry.clear();
+        while (chars.hasRemaining() || fill()) {
+            char[] ca = chars.array();
+            int start = chars.position();
+            int end = chars.limit();
+            int base = chars.arrayOffset();
+            for (int i = start; i < end; i++) {
+                if (ca[base + i] != delimiter) {
+                    continue;
+                }
+                if (carry.position() > 0) {
+                    appendCarry(ca, base + start, i - start);
+                    carry.flip();
+                    action.accept(carry);
+                    carry.clear();
+                } else {
+                    view.limit(i).position(start);
+                    action.accept(view);
+                }
+                start = i + 1;
+            }
+            //剩下不完整的记录留到下一块
+            appendCarry(ca, base + start, end - start);
+            chars.position(end);
+        }
+        if (carry.position() > 0) {
+            carry.flip();
+            action.accept(carry);
+            carry.clear();
+        }
+    }
+
+    private void appendCarry(char[] src, int off, int len) {
+        if (carry.remaining() < len) {
+            CharBuffer bigger = CharBuffer.allocate(Math.max(carry.capacity() * 2, carry.position() + len));
+            carry.flip();
+            bigger.put(carry);
+            carry = bigger;
+        }
+        carry.put(src, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                BufferPool.shared().release(bytes);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,711 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * 持久化的目录树索引，打开时直接内存映射，不占用堆。
+ * File[]和File对象每一项都有一个完整路径的String；这里路径的每一段名字只在字符串表中保存一次，
+ * 每个条目是索引文件中一条32字节的定长记录（名字编号、父目录、子树结尾、类型、大小、修改时间）。
+ * 条目按深度优先的先序排列，同一目录的子项按名字排序，所以一个目录的整个子树是连续的一段，
+ * 前缀查询只需要找到这几段；按扩展名查询使用建索引时生成的倒排表。
+ * 重启后用open()重新映射索引文件即可，不必重新stat整棵树。
+ * 重新生成时先写临时文件再替换。Windows上被映射的文件不能替换，
+ * 其他进程还打开着旧索引时build()抛出异常，旧索引保持不变。
+ */
+public class FileIndex implements AutoCloseable {
+
+    private static final int MAGIC = 0x46494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+    //一个区段用一个MappedByteBuffer映射，条目数受2GB的限制
+    static final int MAX_ENTRIES = Integer.MAX_VALUE / RECORD_SIZE;
+
+    static final int DIRECTORY = 1;
+    static final int REGULAR = 2;
+    static final int SYMLINK = 4;
+
+    //记录中各字段的偏移
+    private static final int NAME = 0;
+    private static final int PARENT = 4;
+    private static final int END = 8;
+    private static final int FLAGS = 12;
+    private static final int SIZE = 16;
+    private static final int MODIFIED = 24;
+
+    private final FileChannel channel;
+    private final Path root;
+    private final long builtAt;
+    private final int count;
+    private final int strings;
+    private final int slots;
+    private final int extensions;
+    private final ByteBuffer entries;
+    private final ByteBuffer offsets;
+    private final ByteBuffer blob;
+    private final ByteBuffer hash;
+    private final ByteBuffer extTable;
+    private final ByteBuffer postings;
+
+    //打开已有的索引文件
+    public static FileIndex open(Path indexFile) throws IOException {
+        return new FileIndex(FileChannel.open(indexFile, StandardOpenOption.READ));
+    }
+
+    //扫描root并把索引写到indexFile，然后打开它
+    public static FileIndex build(Path root, Path indexFile) throws IOException {
+        new Builder(root.toAbsolutePath().normalize()).write(indexFile);
+        return open(indexFile);
+    }
+
+    //索引文件存在并且是root的索引时直接打开，否则重新扫描
+    public static FileIndex openOrBuild(Path root, Path indexFile) throws IOException {
+        //先不映射地检查：映射过的旧索引在被回收之前，Windows上无法被新索引替换
+        if (Files.isRegularFile(indexFile) && root.toAbsolutePath().normalize().equals(indexedRoot(indexFile))) {
+            try {
+                return open(indexFile);
+            } catch (IOException e) {
+                //内容损坏，重新生成
+            }
+        }
+        return build(root, indexFile);
+    }
+
+    //只读出头部和根目录的名字，不映射文件；不是有效的索引文件时返回null
+    private static Path indexedRoot(Path indexFile) {
+        try (FileChannel ch = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (!readFully(ch, header, 0) || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = header.getInt(8);
+            int strings = header.getInt(12);
+            int rootId = header.getInt(32);
+            if (count < 0 || rootId < 0 || rootId >= strings) {
+                return null;
+            }
+            long offsetsPos = HEADER_SIZE + (long) count * RECORD_SIZE;
+            ByteBuffer range = ByteBuffer.allocate(8);
+            if (!readFully(ch, range, offsetsPos + rootId * 4L)) {
+                return null;
+            }
+            int from = range.getInt(0);
+            int to = range.getInt(4);
+            if (from < 0 || to < from || to - from > 64 * 1024) {
+                return null;
+            }
+            ByteBuffer name = ByteBuffer.allocate(to - from);
+            if (!readFully(ch, name, offsetsPos + (strings + 1L) * 4 + from)) {
+                return null;
+            }
+            return Paths.get(new String(name.array(), StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static boolean readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private FileIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            int n = channel.read(header, 0);
+            header.flip();
+            if (n < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a file index");
+            }
+            count = header.getInt();
+            strings = header.getInt();
+            slots = header.getInt();
+            extensions = header.getInt();
+            int postingCount = header.getInt();
+            int blobSize = header.getInt();
+            int rootId = header.getInt();
+            builtAt = header.getLong();
+            //先核对总长度再映射，损坏的文件不会留下映射
+            long expected = HEADER_SIZE + (long) count * RECORD_SIZE + (strings + 1L) * 4 + blobSize
+                    + slots * 4L + (extensions + 1L) * 8 + postingCount * 4L;
+            if (expected != channel.size()) {
+                throw new IOException("Truncated file index");
+            }
+
+            long pos = HEADER_SIZE;
+            entries = map(pos, (long) count * RECORD_SIZE);
+            pos += (long) count * RECORD_SIZE;
+            offsets = map(pos, (strings + 1L) * 4);
+            pos += (strings + 1L) * 4;
+            blob = map(pos, blobSize);
+            pos += blobSize;
+            hash = map(pos, slots * 4L);
+            pos += slots * 4L;
+            extTable = map(pos, (extensions + 1L) * 8);
+            pos += (extensions + 1L) * 8;
+            postings = map(pos, postingCount * 4L);
+            pos += postingCount * 4L;
+            root = Paths.get(string(rootId));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer map(long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Index section too large");
+        }
+        if (position + size > channel.size()) {
+            throw new IOException("Truncated file index");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    //建索引的时间，用来判断索引是否太旧
+    public long builtAt() {
+        return builtAt;
+    }
+
+    //条目数，包括根目录自身（编号0）
+    public int count() {
+        return count;
+    }
+
+    public String name(int i) {
+        return string(entries.getInt(record(i) + NAME));
+    }
+
+    //父目录的编号，根目录返回-1
+    public int parent(int i) {
+        return entries.getInt(record(i) + PARENT);
+    }
+
+    public boolean isDirectory(int i) {
+        return (entries.getInt(record(i) + FLAGS) & DIRECTORY) != 0;
+    }
+
+    public boolean isRegularFile(int i) {
+        return (entries.getInt(record(i) + FLAGS) & REGULAR) != 0;
+    }
+
+    public long size(int i) {
+        return entries.getLong(record(i) + SIZE);
+    }
+
+    public long lastModified(int i) {
+        return entries.getLong(record(i) + MODIFIED);
+    }
+
+    //子树结尾的下一个编号，[i, end(i))是i和它下面的所有条目
+    int end(int i) {
+        return entries.getInt(record(i) + END);
+    }
+
+    private int record(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("entry " + i + ", count " + count);
+        }
+        return i * RECORD_SIZE;
+    }
+
+    //相对于根目录的路径，分隔符总是 /，根目录是空字符串
+    public String path(int i) {
+        if (i == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        append(sb, i);
+        return sb.toString();
+    }
+
+    //从i向上找到根目录，再从上往下拼接，目录再深也不会递归
+    private void append(StringBuilder sb, int i) {
+        List<String> parts = new ArrayList<>();
+        for (int p = i; p > 0; p = parent(p)) {
+            parts.add(name(p));
+        }
+        for (int k = parts.size() - 1; k >= 0; k--) {
+            sb.append(parts.get(k));
+            if (k > 0) {
+                sb.append('/');
+            }
+        }
+    }
+
+    public Path resolve(int i) {
+        return i == 0 ? root : root.resolve(path(i));
+    }
+
+    //i的直接子项
+    public IntStream children(int dir) {
+        int end = end(dir);
+        return IntStream.iterate(dir + 1, c -> c < end, this::end);
+    }
+
+    //按相对路径查找，不存在时返回-1
+    public int find(String path) {
+        int dir = 0;
+        for (String part : path.split("/")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            int id = lookup(part.getBytes(StandardCharsets.UTF_8));
+            if (id < 0 || !isDirectory(dir)) {
+                return -1;
+            }
+            dir = child(dir, id);
+            if (dir < 0) {
+                return -1;
+            }
+        }
+        return dir;
+    }
+
+    private int child(int dir, int nameId) {
+        int end = end(dir);
+        for (int c = dir + 1; c < end; c = end(c)) {
+            if (entries.getInt(c * RECORD_SIZE + NAME) == nameId) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 相对路径以prefix开头的所有条目，相当于path(i).startsWith(prefix)，但只访问匹配的子树。
+     * 例如"src/"是src下面的所有条目，"src/Te"是src中名字以Te开头的项和它们的子树。
+     */
+    public IntStream prefix(String prefix) {
+        while (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        if (prefix.isEmpty()) {
+            return IntStream.range(0, count);
+        }
+        int slash = prefix.lastIndexOf('/');
+        int dir = slash < 0 ? 0 : find(prefix.substring(0, slash));
+        if (dir < 0 || !isDirectory(dir)) {
+            return IntStream.empty();
+        }
+        byte[] partial = prefix.substring(slash + 1).getBytes(StandardCharsets.UTF_8);
+        if (partial.length == 0) {
+            return IntStream.range(dir + 1, end(dir));
+        }
+        //先收集匹配的子树区间，再拼成一个流；逐个IntStream.concat在匹配项很多时会嵌套过深而栈溢出
+        int[] from = new int[8];
+        int[] to = new int[8];
+        int n = 0;
+        int end = end(dir);
+        for (int c = dir + 1; c < end; c = end(c)) {
+            if (startsWith(entries.getInt(c * RECORD_SIZE + NAME), partial)) {
+                if (n == from.length) {
+                    from = Arrays.copyOf(from, n * 2);
+                    to = Arrays.copyOf(to, n * 2);
+                }
+                from[n] = c;
+                to[n] = end(c);
+                n++;
+            }
+        }
+        int[] starts = from;
+        int[] ends = to;
+        return IntStream.range(0, n).flatMap(k -> IntStream.range(starts[k], ends[k]));
+    }
+
+    //扩展名为ext的所有文件（不区分大小写，不带点），相当于listFiles()加FilenameFilter，但不遍历目录
+    public IntStream extension(String ext) {
+        int id = lookup(ext.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        if (id < 0) {
+            return IntStream.empty();
+        }
+        //扩展名表按字符串编号排序，二分查找
+        int lo = 0;
+        int hi = extensions - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = extTable.getInt(mid * 8);
+            if (v < id) {
+                lo = mid + 1;
+            } else if (v > id) {
+                hi = mid - 1;
+            } else {
+                int from = extTable.getInt(mid * 8 + 4);
+                int to = extTable.getInt(mid * 8 + 12);
+                return IntStream.range(from, to).map(k -> postings.getInt(k * 4));
+            }
+        }
+        return IntStream.empty();
+    }
+
+    //按层次打印，格式和TreeScanner.print()相同
+    public void print(TextSink out, int level) {
+        print(out, 0, level);
+    }
+
+    private void print(TextSink out, int dir, int level) {
+        int end = end(dir);
+        for (int c = dir + 1; c < end; c = end(c)) {
+            out.repeat(' ', level * 2);
+            int id = entries.getInt(c * RECORD_SIZE + NAME);
+            int from = offsets.getInt(id * 4);
+            int to = offsets.getInt(id * 4 + 4);
+            //名字直接从映射的字节解码，只有非ASCII字符才需要生成String
+            boolean ascii = true;
+            for (int k = from; k < to && ascii; k++) {
+                ascii = blob.get(k) >= 0;
+            }
+            if (ascii) {
+                for (int k = from; k < to; k++) {
+                    out.print((char) blob.get(k));
+                }
+            } else {
+                out.print(string(id));
+            }
+            if (isDirectory(c)) {
+                out.println('/');
+                print(out, c, level + 1);
+            } else {
+                out.println();
+            }
+        }
+    }
+
+    private String string(int id) {
+        int from = offsets.getInt(id * 4);
+        int to = offsets.getInt(id * 4 + 4);
+        byte[] b = new byte[to - from];
+        blob.get(from, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private boolean startsWith(int id, byte[] prefix) {
+        int from = offsets.getInt(id * 4);
+        int to = offsets.getInt(id * 4 + 4);
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; k++) {
+            if (blob.get(from + k) != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //在字符串表的哈希表中查找，不存在时返回-1
+    private int lookup(byte[] name) {
+        if (slots == 0) {
+            return -1;
+        }
+        int mask = slots - 1;
+        for (int s = hash(name) & mask; ; s = (s + 1) & mask) {
+            int id = hash.getInt(s * 4);
+            if (id < 0) {
+                return -1;
+            }
+            int from = offsets.getInt(id * 4);
+            int to = offsets.getInt(id * 4 + 4);
+            if (to - from == name.length && startsWith(id, name)) {
+                return id;
+            }
+        }
+    }
+
+    //FNV-1a，直接对UTF-8字节计算，查找时不需要解码字符串表
+    static int hash(byte[] b) {
+        int h = 0x811C9DC5;
+        for (byte x : b) {
+            h = (h ^ (x & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    //小写的扩展名，没有扩展名时返回null
+    static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || dot == name.length() - 1) {
+            return null;
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        //映射在MappedByteBuffer被回收之前一直有效，关闭通道不影响已经映射的区段
+        channel.close();
+    }
+
+    /**
+     * 扫描目录树并写出索引文件。
+     * 条目记录边扫描边写到文件中，堆中只保留字符串表和扩展名的倒排表。
+     */
+    private static final class Builder {
+
+        private final Path root;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> names = new ArrayList<>();
+        //扩展名的字符串编号 -> 文件编号列表
+        private final Map<Integer, int[]> extPostings = new HashMap<>();
+        private final Map<Integer, Integer> extCounts = new HashMap<>();
+        private FileChannel out;
+        private ByteBuffer buffer;
+        //已经从buffer写到文件中的条目数
+        private int flushed;
+        private int count;
+        private long blobSize;
+
+        Builder(Path root) {
+            this.root = root;
+        }
+
+        void write(Path indexFile) throws IOException {
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            //先写临时文件再替换，正在使用旧索引的进程不受影响；
+            //Windows上旧索引还被映射着时替换会失败（AccessDeniedException），旧索引保持不变
+            try {
+                writeTo(tmp);
+                Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ex) {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+        }
+
+        private void writeTo(Path tmp) throws IOException {
+            buffer = BufferPool.shared().acquireDirect(1024 * 1024);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                out = ch;
+                out.position(HEADER_SIZE);
+                int rootId = intern(root.toString());
+                BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class);
+                add(intern(""), -1, attrs);
+                if (attrs.isDirectory()) {
+                    scan(root, 0);
+                }
+                setEnd(0, count);
+                flush();
+                writeTables(rootId);
+            } finally {
+                BufferPool.shared().release(buffer);
+            }
+        }
+
+        //子项按名字排序后依次加入，遇到目录时先处理它的子树（先序）。
+        //用显式的栈代替递归，目录再深也不会栈溢出
+        private void scan(Path dir, int index) throws IOException {
+            Deque<Level> stack = new ArrayDeque<>();
+            stack.push(new Level(index, list(dir)));
+            while (!stack.isEmpty()) {
+                Level level = stack.peek();
+                if (level.next == level.children.size()) {
+                    stack.pop();
+                    setEnd(level.index, count);
+                    continue;
+                }
+                Path child = level.children.get(level.next++);
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    //扫描期间被删除
+                    continue;
+                }
+                String name = child.getFileName().toString();
+                int i = add(intern(name), level.index, attrs);
+                if (attrs.isDirectory()) {
+                    stack.push(new Level(i, list(child)));
+                } else if (attrs.isRegularFile()) {
+                    String ext = extensionOf(name);
+                    if (ext != null) {
+                        addPosting(intern(ext), i);
+                    }
+                }
+            }
+        }
+
+        //按名字排序的子项，没有权限的目录当作空目录
+        private static List<Path> list(Path dir) {
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path p : ds) {
+                    children.add(p);
+                }
+            } catch (IOException e) {
+                return children;
+            }
+            children.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+            return children;
+        }
+
+        private int intern(String s) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                if (blobSize + bytes.length > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("String table too large");
+                }
+                id = names.size();
+                ids.put(s, id);
+                names.add(bytes);
+                blobSize += bytes.length;
+            }
+            return id;
+        }
+
+        private void addPosting(int ext, int entry) {
+            int n = extCounts.getOrDefault(ext, 0);
+            int[] list = extPostings.get(ext);
+            if (list == null || list.length == n) {
+                list = list == null ? new int[4] : Arrays.copyOf(list, n * 2);
+                extPostings.put(ext, list);
+            }
+            list[n] = entry;
+            extCounts.put(ext, n + 1);
+        }
+
+        private int add(int name, int parent, BasicFileAttributes attrs) throws IOException {
+            if (count == MAX_ENTRIES) {
+                throw new IOException("Too many entries for a file index: " + root);
+            }
+            if (buffer.remaining() < RECORD_SIZE) {
+                flush();
+            }
+            int flags = (attrs.isDirectory() ? DIRECTORY : 0) | (attrs.isRegularFile() ? REGULAR : 0)
+                    | (attrs.isSymbolicLink() ? SYMLINK : 0);
+            buffer.putInt(name).putInt(parent).putInt(count + 1).putInt(flags)
+                    .putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis());
+            return count++;
+        }
+
+        //目录的子树扫描完后补上结尾的编号，记录还在缓冲区中时直接修改，否则按位置写回文件
+        private void setEnd(int i, int end) throws IOException {
+            if (i >= flushed) {
+                buffer.putInt((i - flushed) * RECORD_SIZE + END, end);
+            } else {
+                ByteBuffer b = ByteBuffer.allocate(4).putInt(0, end);
+                out.write(b, HEADER_SIZE + (long) i * RECORD_SIZE + END);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            flushed = count;
+        }
+
+        //条目之后依次写出字符串偏移、字符串内容、哈希表、扩展名表和倒排表，最后写文件头
+        private void writeTables(int rootId) throws IOException {
+            int strings = names.size();
+            int offset = 0;
+            for (int i = 0; i <= strings; i++) {
+                put(4).putInt(offset);
+                if (i < strings) {
+                    offset += names.get(i).length;
+                }
+            }
+            for (byte[] b : names) {
+                put(b.length).put(b);
+            }
+
+            int slots = Integer.highestOneBit(Math.max(1, strings) * 2 - 1) * 2;
+            int[] table = new int[slots];
+            Arrays.fill(table, -1);
+            for (int i = 0; i < strings; i++) {
+                int s = hash(names.get(i)) & (slots - 1);
+                while (table[s] >= 0) {
+                    s = (s + 1) & (slots - 1);
+                }
+                table[s] = i;
+            }
+            for (int id : table) {
+                put(4).putInt(id);
+            }
+
+            Integer[] exts = extPostings.keySet().toArray(new Integer[0]);
+            Arrays.sort(exts);
+            int start = 0;
+            for (Integer ext : exts) {
+                put(8).putInt(ext).putInt(start);
+                start += extCounts.get(ext);
+            }
+            put(8).putInt(-1).putInt(start);
+            for (Integer ext : exts) {
+                int[] list = extPostings.get(ext);
+                for (int k = 0, n = extCounts.get(ext); k < n; k++) {
+                    put(4).putInt(list[k]);
+                }
+            }
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(strings).putInt(slots)
+                    .putInt(exts.length).putInt(start).putInt((int) blobSize).putInt(rootId)
+                    .putLong(System.currentTimeMillis());
+            header.clear();
+            out.write(header, 0);
+        }
+
+        //保证缓冲区至少还有n个字节的空间
+        private ByteBuffer put(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * 扫描栈中的一层：目录的编号、排好序的子项和下一个要处理的子项。
+     */
+    private static final class Level {
+
+        final int index;
+        final List<Path> children;
+        int next;
+
+        Level(int index, List<Path> children) {
+            this.index = index;
+            this.children = children;
+        }
+    }
+
+}
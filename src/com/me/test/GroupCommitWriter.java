@@ -0,0 +1,412 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 组提交（group commit）的追加写入器，和数据库的预写日志（WAL）一样。
+ * FileWriter每次write()都直接落到一次系统调用上，多个线程共用时还要争抢同一把锁；
+ * 这里生产者线程只把记录放进无锁队列，由唯一的刷写线程把排队的记录攒成一大块一次写出，
+ * 需要持久化时整批只调用一次fsync（FileChannel.force()）。
+ * 它本身也是一个Writer，可以直接替换FileWriter/OutputStreamWriter，flush()会等到之前写入的内容都落盘。
+ * 排队中还没写出的字节数有上限，生产者比磁盘快时写入会阻塞，等刷写线程腾出空间。
+ */
+public class GroupCommitWriter extends Writer {
+
+    static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+    static final long DEFAULT_MAX_QUEUED = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final int batchSize;
+    private final long maxQueued;
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+    //排队中还没写出的字节数
+    private final AtomicLong queuedBytes = new AtomicLong();
+    //队列满时生产者在这里等待，blocked是等待中的生产者数，刷写线程只在有人等待时才通知
+    private final Object space = new Object();
+    private volatile int blocked;
+    private final Thread flusher;
+    //刷写线程即将park时为true，生产者只在这时才需要unpark它
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    //上一次write()末尾的高位代理字符，等下一次写入的低位代理字符拼成完整的字符再编码；由lock保护
+    private char pendingHigh;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    //追加到文件末尾，文件不存在时创建
+    public static GroupCommitWriter open(Path file, boolean fsync) throws IOException {
+        return new GroupCommitWriter(FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), fsync, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param channel   追加写入的文件，关闭时一并关闭
+     * @param fsync     每批写出后是否调用force()保证落盘
+     * @param batchSize 一批最多合并的字节数
+     */
+    public GroupCommitWriter(FileChannel channel, boolean fsync, int batchSize) {
+        this(channel, fsync, batchSize, Math.max(DEFAULT_MAX_QUEUED, batchSize));
+    }
+
+    /**
+     * @param maxQueued 排队中还没写出的最大字节数，超过时写入阻塞
+     */
+    public GroupCommitWriter(FileChannel channel, boolean fsync, int batchSize, long maxQueued) {
+        if (batchSize <= 0 || maxQueued <= 0) {
+            throw new IllegalArgumentException("batchSize and maxQueued must be positive");
+        }
+        this.channel = channel;
+        this.fsync = fsync;
+        this.batchSize = batchSize;
+        this.maxQueued = maxQueued;
+        this.flusher = new Thread(this::run, "group-commit-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 追加一条记录，不等待写出；排队的字节数达到上限时阻塞。
+     * data中的内容会被复制，返回后调用方可以立即重用数组。
+     * 返回的Future在这条记录（以及它之前的所有记录）写出之后完成，开启fsync时还保证已经落盘。
+     */
+    public CompletableFuture<Void> append(byte[] data) throws IOException {
+        return append(data, 0, data.length);
+    }
+
+    public CompletableFuture<Void> append(byte[] data, int off, int len) throws IOException {
+        //在调用方线程检查范围，错误的参数不能让刷写线程失败
+        Objects.checkFromIndexSize(off, len, data.length);
+        return appendOwned(Arrays.copyOfRange(data, off, off + len));
+    }
+
+    public CompletableFuture<Void> append(String s) throws IOException {
+        return appendOwned(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //data是新建的数组，不必再复制
+    private CompletableFuture<Void> appendOwned(byte[] data) throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(new Record(data, 0, data.length, done));
+        return done;
+    }
+
+    //Writer的写入方法只排队，不等待。
+    //BufferedWriter、PrintWriter会在缓冲区边界把代理对拆到两次调用里，所以编码在lock中进行，跨调用保留高位代理字符
+    @Override
+    public void write(int c) throws IOException {
+        synchronized (lock) {
+            if (c < 0x80 && pendingHigh == 0) {
+                enqueue(new Record(new byte[]{(byte) c}, 0, 1, null));
+            } else {
+                encode(String.valueOf((char) c));
+            }
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        write(new String(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        synchronized (lock) {
+            encode(str.substring(off, off + len));
+        }
+    }
+
+    private void encode(String str) throws IOException {
+        if (pendingHigh != 0) {
+            str = pendingHigh + str;
+            pendingHigh = 0;
+        }
+        int n = str.length();
+        if (n > 0 && Character.isHighSurrogate(str.charAt(n - 1))) {
+            pendingHigh = str.charAt(n - 1);
+            str = str.substring(0, n - 1);
+        }
+        if (!str.isEmpty()) {
+            byte[] b = str.getBytes(StandardCharsets.UTF_8);
+            enqueue(new Record(b, 0, b.length, null));
+        }
+    }
+
+    private void enqueue(Record r) throws IOException {
+        ensureOpen();
+        reserve(r.len);
+        queue.add(r);
+        //刷写线程可能在ensureOpen()之后失败或者被关闭，并且已经清空了队列；
+        //这时还能从队列中取回这条记录，说明不会再有人处理它
+        if ((failure != null || closed) && queue.remove(r)) {
+            release(r.len);
+            IOException e = failure != null ? new IOException("Previous write failed", failure)
+                    : new IOException("Writer closed");
+            if (r.done != null) {
+                r.done.completeExceptionally(e);
+            }
+            throw e;
+        }
+        if (parked) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    //为一条记录占用队列空间，满了就等刷写线程写出；比上限还大的记录只要队列为空就放行
+    private void reserve(int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        while (true) {
+            long q = queuedBytes.get();
+            if (q == 0 || q + len <= maxQueued) {
+                if (queuedBytes.compareAndSet(q, q + len)) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (space) {
+                blocked++;
+                try {
+                    //先登记blocked再检查，刷写线程先减少字节数再看blocked，两边不会都错过
+                    while ((q = queuedBytes.get()) != 0 && q + len > maxQueued) {
+                        ensureOpen();
+                        space.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for queue space");
+                } finally {
+                    blocked--;
+                }
+            }
+        }
+    }
+
+    //记录写出或者被丢弃后归还队列空间
+    private void release(long len) {
+        if (len == 0) {
+            return;
+        }
+        queuedBytes.addAndGet(-len);
+        if (blocked > 0) {
+            synchronized (space) {
+                space.notifyAll();
+            }
+        }
+    }
+
+    //唤醒等待队列空间的生产者，让它们看到失败或者关闭
+    private void wakeProducers() {
+        synchronized (space) {
+            space.notifyAll();
+        }
+    }
+
+    //等到之前写入的内容全部写出（开启fsync时还保证已经落盘）
+    @Override
+    public void flush() throws IOException {
+        await(appendOwned(new byte[0]));
+    }
+
+    private void ensureOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Previous write failed", failure);
+        }
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    private static void await(CompletableFuture<Void> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for commit");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    //刷写线程：取出排队的记录，攒满一批或者队列空了就写出
+    private void run() {
+        ByteBuffer buffer = BufferPool.shared().acquireDirect(batchSize);
+        List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        try {
+            while (true) {
+                Record r = queue.poll();
+                if (r == null) {
+                    if (closed) {
+                        return;
+                    }
+                    parked = true;
+                    //设置parked之后再检查一次，避免错过在这之间入队的记录
+                    if (queue.isEmpty() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+                buffer.clear();
+                int count = 0;
+                long batchBytes = 0;
+                while (r != null) {
+                    if (r.len > buffer.remaining()) {
+                        if (buffer.position() > 0) {
+                            //放不下了，先把已经攒的写出去
+                            buffer.flip();
+                            writeFully(buffer);
+                            buffer.clear();
+                        }
+                        if (r.len > buffer.remaining()) {
+                            //比整个缓冲区还大的记录直接写
+                            writeFully(ByteBuffer.wrap(r.data, r.off, r.len));
+                        } else {
+                            buffer.put(r.data, r.off, r.len);
+                        }
+                    } else {
+                        buffer.put(r.data, r.off, r.len);
+                    }
+                    if (r.done != null) {
+                        waiters.add(r.done);
+                    }
+                    count++;
+                    batchBytes += r.len;
+                    bytes.add(r.len);
+                    r = buffer.position() < buffer.limit() ? queue.poll() : null;
+                }
+                buffer.flip();
+                writeFully(buffer);
+                if (fsync) {
+                    channel.force(false);
+                }
+                records.add(count);
+                batches.increment();
+                release(batchBytes);
+                for (CompletableFuture<Void> f : waiters) {
+                    f.complete(null);
+                }
+                waiters.clear();
+            }
+        } catch (Throwable e) {
+            //不只是IOException：例如只读通道抛出的NonWritableChannelException也不能让等待的调用方永远挂起
+            failure = e;
+            for (CompletableFuture<Void> f : waiters) {
+                f.completeExceptionally(e);
+            }
+            //之后排队的记录都不会再写出
+            Record r;
+            while ((r = queue.poll()) != null) {
+                release(r.len);
+                if (r.done != null) {
+                    r.done.completeExceptionally(e);
+                }
+            }
+        } finally {
+            wakeProducers();
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    //写入的记录数
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    //写出的批数，记录数除以批数就是平均每次系统调用合并的记录数
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    //等待排队的记录全部写出后关闭文件
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        synchronized (lock) {
+            if (pendingHigh != 0 && failure == null) {
+                //没有等到低位代理字符，和String.getBytes()一样写成'?'
+                pendingHigh = 0;
+                queuedBytes.incrementAndGet();
+                queue.add(new Record(new byte[]{'?'}, 0, 1, null));
+            }
+        }
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //和close()同时入队、没赶上最后一批的记录
+        Record r;
+        while ((r = queue.poll()) != null) {
+            release(r.len);
+            if (r.done != null) {
+                r.done.completeExceptionally(new IOException("Writer closed"));
+            }
+        }
+        try {
+            if (failure != null) {
+                throw new IOException("Previous write failed", failure);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 排队中的一条记录，done为null表示调用方不关心何时写出。
+     */
+    private static final class Record {
+
+        final byte[] data;
+        final int off;
+        final int len;
+        final CompletableFuture<Void> done;
+
+        Record(byte[] data, int off, int len, CompletableFuture<Void> done) {
+            this.data = data;
+            this.off = off;
+            this.len = len;
+            this.done = done;
+        }
+    }
+
+}
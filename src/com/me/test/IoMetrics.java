@@ -0,0 +1,136 @@
+package com.me.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 一组I/O统计：字节数、操作次数、吞吐量和每次操作的延迟分布。
+ * 计数用LongAdder，延迟按2的幂分桶记录在AtomicLongArray里，
+ * 多线程同时记录时不加锁，记录过程中也不分配任何对象。
+ */
+public class IoMetrics implements IoMetricsMBean {
+
+    //第i个桶记录延迟在[2^(i-1), 2^i)纳秒之间的操作
+    private static final int BUCKETS = 64;
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private volatile long startNanos = System.nanoTime();
+
+    //记录一次操作：传输的字节数和耗时
+    public void record(long n, long latencyNanos) {
+        if (n > 0) {
+            bytes.add(n);
+        }
+        operations.increment();
+        if (latencyNanos < 0) {
+            latencyNanos = 0;
+        }
+        totalLatency.add(latencyNanos);
+        maxLatency.accumulate(latencyNanos);
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyNanos)));
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getOperations() {
+        return operations.sum();
+    }
+
+    //从创建（或上次reset）到现在的平均吞吐量
+    @Override
+    public double getBytesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : getBytes() * 1_000_000_000.0 / elapsed;
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        long ops = getOperations();
+        return ops == 0 ? 0 : (double) totalLatency.sum() / ops;
+    }
+
+    @Override
+    public long getP50LatencyNanos() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public long getP99LatencyNanos() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return maxLatency.get();
+    }
+
+    //返回延迟的近似分位数（所在桶的上界）
+    public long percentile(double p) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : Math.min(1L << i, getMaxLatencyNanos());
+            }
+        }
+        return getMaxLatencyNanos();
+    }
+
+    @Override
+    public void reset() {
+        bytes.reset();
+        operations.reset();
+        totalLatency.reset();
+        maxLatency.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    //注册到平台MBeanServer，名字形如 com.me.test:type=IoMetrics,name=copy
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.me.test:type=IoMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + name, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes, %d ops, %.2f MB/s, latency mean=%.0fns p50=%dns p99=%dns max=%dns",
+                getBytes(), getOperations(), getBytesPerSecond() / (1024 * 1024), getMeanLatencyNanos(),
+                getP50LatencyNanos(), getP99LatencyNanos(), getMaxLatencyNanos());
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.me.test;
+
+/**
+ * IoMetrics暴露给JMX的属性，可以用jconsole/VisualVM查看。
+ */
+public interface IoMetricsMBean {
+
+    long getBytes();
+
+    long getOperations();
+
+    double getBytesPerSecond();
+
+    double getMeanLatencyNanos();
+
+    long getP50LatencyNanos();
+
+    long getP99LatencyNanos();
+
+    long getMaxLatencyNanos();
+
+    void reset();
+
+}
@@ -0,0 +1,489 @@
+package com.me.test;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 共享的I/O调度器，复制、压缩、解压等路径的每次读写都先向它申请。
+ * 每个作业（Job）有自己的令牌桶限速，例如夜间归档限制在50MB/s；
+ * 调度器同时只放行maxInFlight个I/O操作（相当于磁盘的队列深度），还可以限制总带宽，
+ * 排队的请求按加权公平排队（WFQ）放行：优先级决定权重，交互式作业的权重是批量作业的16倍，
+ * 新到的交互式请求几乎总是排在已经排队的批量请求前面，而批量作业也不会被饿死。
+ * 没有排队的请求、调度器也不限制总带宽时，请求不加锁直接放行（只用CAS占一个位置），
+ * 不限速的默认作业在负载不高时几乎没有额外开销；只有真的需要排队时才进入公平排队，
+ * 放行时只唤醒被放行的请求。
+ * 需要排队的请求的排队时间按优先级记录在IoMetrics中，可以注册到JMX查看分位数。
+ */
+public class IoScheduler {
+
+    /**
+     * 优先级，对应公平排队的权重。
+     */
+    public enum Priority {
+        INTERACTIVE(16), NORMAL(4), BULK(1);
+
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    //共享调度器的并发上限按CPU数放大，几个按CPU数开线程的复制、压缩同时运行时也不必排队
+    private static final IoScheduler SHARED = new IoScheduler(
+            Math.max(DEFAULT_MAX_IN_FLIGHT, 4 * Runtime.getRuntime().availableProcessors()), 0);
+
+    private final int maxInFlight;
+    private final TokenBucket bandwidth;
+    private final Job defaultJob;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Request> waiting = new PriorityQueue<>();
+    //waiting.size()，在锁中修改，快速路径不加锁读取
+    private volatile int queued;
+    //快速路径和dispatch()都用CAS占位置，保证不超过maxInFlight
+    private final AtomicInteger inFlight = new AtomicInteger();
+    //虚拟时间：最近放行的请求的完成标记
+    private double virtualTime;
+    private long sequence;
+
+    private final Map<Priority, IoMetrics> waits = new EnumMap<>(Priority.class);
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param maxInFlight    同时进行的I/O操作的上限
+     * @param bytesPerSecond 所有作业的总带宽上限，0表示不限制
+     */
+    public IoScheduler(int maxInFlight, long bytesPerSecond) {
+        if (maxInFlight <= 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive and bytesPerSecond not negative");
+        }
+        this.maxInFlight = maxInFlight;
+        this.bandwidth = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+        for (Priority p : Priority.values()) {
+            waits.put(p, new IoMetrics());
+        }
+        this.defaultJob = job("default", Priority.NORMAL, 0);
+    }
+
+    public static IoScheduler shared() {
+        return SHARED;
+    }
+
+    //没有指定作业的I/O使用的作业：普通优先级，不限速
+    public Job defaultJob() {
+        return defaultJob;
+    }
+
+    /**
+     * 创建一个作业，同一个作业的所有I/O共享一个令牌桶。
+     *
+     * @param bytesPerSecond 作业的带宽上限，0表示不限制
+     */
+    public Job job(String name, Priority priority, long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        return new Job(name, priority, bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null);
+    }
+
+    //等待调度器放行一个I/O操作
+    private void admit(Job job, long bytes) throws InterruptedIOException {
+        //快速路径：没有人排队、不限制总带宽、还有空位
+        if (bandwidth == null && queued == 0 && tryOccupy()) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            Request r = new Request(job, bytes, sequence++, lock.newCondition());
+            r.tag = Math.max(virtualTime, job.finishTag) + (double) bytes / job.priority.weight;
+            job.finishTag = r.tag;
+            waiting.add(r);
+            queued = waiting.size();
+            maxQueueDepth.accumulate(queued);
+            while (!r.granted) {
+                long delay = dispatch();
+                if (r.granted) {
+                    break;
+                }
+                try {
+                    //排在最前面但总带宽用完时，到令牌补充的时间再检查；否则等dispatch()放行自己
+                    if (delay > 0 && waiting.peek() == r) {
+                        r.ready.awaitNanos(delay);
+                    } else {
+                        r.ready.await();
+                    }
+                } catch (InterruptedException e) {
+                    if (!r.granted) {
+                        waiting.remove(r);
+                        queued = waiting.size();
+                    } else {
+                        inFlight.decrementAndGet();
+                    }
+                    //空出的位置或者新的队首交给其他请求
+                    dispatch();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for I/O scheduler");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        long waited = System.nanoTime() - start;
+        waits.get(job.priority).record(bytes, waited);
+        job.waits.record(bytes, waited);
+    }
+
+    //不超过maxInFlight时占用一个位置
+    private boolean tryOccupy() {
+        for (int n = inFlight.get(); n < maxInFlight; n = inFlight.get()) {
+            if (inFlight.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //按公平排队的顺序放行请求，直到没有空位或总带宽用完，只唤醒被放行的请求；返回需要等待令牌补充的纳秒数
+    private long dispatch() {
+        long delay = 0;
+        while (!waiting.isEmpty() && inFlight.get() < maxInFlight) {
+            Request head = waiting.peek();
+            if (bandwidth != null) {
+                delay = bandwidth.reserve(head.bytes, false);
+                if (delay > 0) {
+                    //让队首自己按令牌补充的时间等待
+                    head.ready.signal();
+                    break;
+                }
+            }
+            if (!tryOccupy()) {
+                if (bandwidth != null) {
+                    bandwidth.refund(head.bytes);
+                }
+                break;
+            }
+            waiting.poll();
+            head.granted = true;
+            virtualTime = Math.max(virtualTime, head.tag - (double) head.bytes / head.job.priority.weight);
+            head.ready.signal();
+        }
+        queued = waiting.size();
+        return delay;
+    }
+
+    private void complete() {
+        inFlight.decrementAndGet();
+        //先释放位置再检查队列：和admit()中先入队再检查位置配合，两边至少有一方能看到对方
+        if (queued > 0) {
+            lock.lock();
+            try {
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //正在排队的请求数
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    //某个优先级的排队时间统计（操作数、字节数、等待时间分布），不包括走快速路径、不需要排队的请求
+    public IoMetrics getWaitMetrics(Priority priority) {
+        return waits.get(priority);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IoScheduler[queue=").append(getQueueDepth())
+                .append(", maxQueue=").append(getMaxQueueDepth()).append(", inFlight=").append(getInFlight());
+        for (Priority p : Priority.values()) {
+            IoMetrics m = waits.get(p);
+            if (m.getOperations() > 0) {
+                sb.append(String.format(", %s wait mean=%.0fns p99=%dns", p, m.getMeanLatencyNanos(),
+                        m.getP99LatencyNanos()));
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 一个作业，例如一次复制或一次归档。
+     * 每次I/O前调用acquire(n)，结束后调用release(unused)归还没用完的额度：
+     * <pre>
+     * job.acquire(n);
+     * int used = 0;
+     * try {
+     *     used = channel.read(buffer);
+     * } finally {
+     *     job.release(n - Math.max(used, 0));
+     * }
+     * </pre>
+     */
+    public final class Job {
+
+        private final String name;
+        private final Priority priority;
+        private final TokenBucket bucket;
+        private final IoMetrics waits = new IoMetrics();
+        private final AtomicLong bytes = new AtomicLong();
+        //这个作业最后一个请求的完成标记，由调度器的锁保护
+        private double finishTag;
+
+        Job(String name, Priority priority, TokenBucket bucket) {
+            this.name = name;
+            this.priority = priority;
+            this.bucket = bucket;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * 申请进行一次最多n字节的I/O：先等作业自己的令牌桶，再在调度器中排队。
+         * 之后必须调用release()，否则会一直占用调度器的一个位置。
+         */
+        public void acquire(long n) throws InterruptedIOException {
+            if (bucket != null) {
+                long delay = bucket.reserve(n, true);
+                long deadline = System.nanoTime() + delay;
+                while (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                    if (Thread.interrupted()) {
+                        bucket.refund(n);
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttled");
+                    }
+                    delay = deadline - System.nanoTime();
+                }
+            }
+            admit(this, n);
+        }
+
+        //I/O结束，unused是申请了但没有用到的字节数，会还给令牌桶
+        public void release(long unused) {
+            if (unused > 0) {
+                if (bucket != null) {
+                    bucket.refund(unused);
+                }
+                if (bandwidth != null) {
+                    bandwidth.refund(unused);
+                }
+            }
+            complete();
+        }
+
+        //这个作业一次I/O适合的大小：限速时每次不超过0.1秒的额度，输出更平稳
+        public long quantum(long max) {
+            if (bucket == null) {
+                return max;
+            }
+            return Math.min(max, Math.max(64 * 1024, bucket.rate / 10));
+        }
+
+        void count(long n) {
+            if (n > 0) {
+                bytes.addAndGet(n);
+            }
+        }
+
+        //经过这个作业的字节数
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        //这个作业的排队和限速等待时间统计
+        public IoMetrics getWaitMetrics() {
+            return waits;
+        }
+
+        //读取时经过调度器的输入流
+        public InputStream wrap(InputStream in) {
+            return new ScheduledInputStream(in, this);
+        }
+
+        //写入时经过调度器的输出流
+        public OutputStream wrap(OutputStream out) {
+            return new ScheduledOutputStream(out, this);
+        }
+
+        @Override
+        public String toString() {
+            return "Job[" + name + ", " + priority + ", " + bytes.get() + " bytes, wait " + waits + "]";
+        }
+    }
+
+    /**
+     * 排队中的一个I/O请求，按完成标记排序，相同时先到先得。
+     */
+    private static final class Request implements Comparable<Request> {
+
+        final Job job;
+        final long bytes;
+        final long seq;
+        //放行或者成为受带宽限制的队首时被唤醒
+        final Condition ready;
+        double tag;
+        boolean granted;
+
+        Request(Job job, long bytes, long seq, Condition ready) {
+            this.job = job;
+            this.bytes = bytes;
+            this.seq = seq;
+            this.ready = ready;
+        }
+
+        @Override
+        public int compareTo(Request o) {
+            int c = Double.compare(tag, o.tag);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    /**
+     * 令牌桶，允许透支：预约时先扣掉令牌，余额为负时返回需要等待的时间。
+     * 桶的容量是一秒的额度，空闲一段时间后可以有一秒的突发。
+     */
+    static final class TokenBucket {
+
+        final long rate;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        /**
+         * 预约n个令牌，返回需要等待的纳秒数。
+         *
+         * @param overdraw 为true时总是扣除（调用者等待后就可以开始）；为false时只有余额非负才扣除
+         */
+        synchronized long reserve(long n, boolean overdraw) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - last) * rate / 1e9);
+            last = now;
+            if (!overdraw) {
+                if (tokens < 0) {
+                    return Math.max(1, (long) (-tokens * 1e9 / rate));
+                }
+                tokens -= n;
+                return 0;
+            }
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+
+        synchronized void refund(long n) {
+            tokens = Math.min(rate, tokens + n);
+        }
+    }
+
+    /**
+     * 每次read()前向作业申请的输入流。
+     */
+    static final class ScheduledInputStream extends FilterInputStream {
+
+        private final Job job;
+
+        ScheduledInputStream(InputStream in, Job job) {
+            super(in);
+            this.job = job;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            len = (int) Math.min(len, job.quantum(len));
+            job.acquire(len);
+            int n = -1;
+            try {
+                n = in.read(b, off, len);
+                job.count(n);
+                return n;
+            } finally {
+                job.release(len - Math.max(n, 0));
+            }
+        }
+    }
+
+    /**
+     * 每次write()前向作业申请的输出流。
+     */
+    static final class ScheduledOutputStream extends FilterOutputStream {
+
+        private final Job job;
+
+        ScheduledOutputStream(OutputStream out, Job job) {
+            super(out);
+            this.job = job;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = (int) job.quantum(len);
+                job.acquire(n);
+                boolean done = false;
+                try {
+                    out.write(b, off, n);
+                    done = true;
+                } finally {
+                    job.release(done ? 0 : n);
+                }
+                job.count(n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+}
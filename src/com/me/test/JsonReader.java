@@ -0,0 +1,613 @@
+package com.me.test;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 流式JSON解析器（拉模式），直接从InputStream读取UTF-8字节。
+ * 调用者用peek()查看下一个记号，再调用对应的nextXxx()读取，不会构建整棵树。
+ * readValue()可以直接把对象读成record/普通类（字段信息来自BinaryCodec），
+ * 字段名按UTF-8字节直接比较，不为每个字段名创建String。
+ * 顶层可以连续有多个值（例如每行一个对象的NDJSON）。
+ */
+public class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    //字段名的UTF-8字节，按类缓存
+    private static final ClassValue<byte[][]> NAMES = new ClassValue<byte[][]>() {
+        @Override
+        protected byte[][] computeValue(Class<?> type) {
+            BinaryCodec.Property[] properties = BinaryCodec.shape(type).properties();
+            byte[][] names = new byte[properties.length][];
+            for (int i = 0; i < properties.length; i++) {
+                names[i] = properties[i].name.getBytes(StandardCharsets.UTF_8);
+            }
+            return names;
+        }
+    };
+
+    private final InputStream in;
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+
+    //嵌套的对象/数组：true表示对象
+    private boolean[] objects = new boolean[16];
+    //当前层是否已经读过元素（需要逗号）
+    private boolean[] nonEmpty = new boolean[16];
+    //当前对象是否刚读完名字
+    private boolean afterName;
+    private int depth;
+    private Token peeked;
+
+    //解码字符串、数字时复用的缓冲区
+    private byte[] scratch = new byte[64];
+    private int scratchLen;
+
+    public JsonReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    public JsonReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    //查看下一个记号，不消耗它
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int c = skipWhitespace();
+        if (depth > 0) {
+            boolean object = objects[depth - 1];
+            if (c == (object ? '}' : ']') && !afterName) {
+                return peeked = object ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+            if (object && !afterName) {
+                if (nonEmpty[depth - 1]) {
+                    expect(c, ',');
+                    c = skipWhitespace();
+                }
+                if (c != '"') {
+                    throw syntax("Expected name");
+                }
+                return peeked = Token.NAME;
+            }
+            if (object) {
+                expect(c, ':');
+                c = skipWhitespace();
+            } else if (nonEmpty[depth - 1]) {
+                expect(c, ',');
+                c = skipWhitespace();
+            }
+        } else if (c == -1) {
+            return peeked = Token.END_DOCUMENT;
+        }
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                return peeked = Token.NULL;
+            case -1:
+                throw new EOFException("Unexpected end of JSON");
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    return peeked = Token.NUMBER;
+                }
+                throw syntax("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        pos++;
+        push(true);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        pos++;
+        pop();
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        pos++;
+        push(false);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        pos++;
+        pop();
+    }
+
+    //当前对象或数组中是否还有元素
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        readStringBytes();
+        afterName = true;
+        return new String(scratch, 0, scratchLen, StandardCharsets.UTF_8);
+    }
+
+    public String nextString() throws IOException {
+        Token t = peek();
+        if (t == Token.NUMBER) {
+            consume(t);
+            readNumberBytes();
+        } else {
+            consume(Token.STRING);
+            readStringBytes();
+        }
+        valueRead();
+        return new String(scratch, 0, scratchLen, StandardCharsets.UTF_8);
+    }
+
+    public long nextLong() throws IOException {
+        consume(Token.NUMBER);
+        readNumberBytes();
+        valueRead();
+        long v = 0;
+        boolean negative = scratch[0] == '-';
+        int i = negative ? 1 : 0;
+        if (i == scratchLen || scratchLen - i > 18) {
+            return parseLongSlow();
+        }
+        for (; i < scratchLen; i++) {
+            int d = scratch[i] - '0';
+            if (d < 0 || d > 9) {
+                //带小数点或指数的数字
+                return parseLongSlow();
+            }
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    private long parseLongSlow() throws IOException {
+        String s = new String(scratch, 0, scratchLen, StandardCharsets.US_ASCII);
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            double d;
+            try {
+                d = Double.parseDouble(s);
+            } catch (NumberFormatException bad) {
+                throw syntax("Bad number " + s);
+            }
+            if (d != (long) d) {
+                throw syntax("Expected a long but was " + s);
+            }
+            return (long) d;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long v = nextLong();
+        if (v != (int) v) {
+            throw syntax("Expected an int but was " + v);
+        }
+        return (int) v;
+    }
+
+    public double nextDouble() throws IOException {
+        consume(Token.NUMBER);
+        readNumberBytes();
+        valueRead();
+        try {
+            return Double.parseDouble(new String(scratch, 0, scratchLen, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw syntax("Bad number");
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        boolean v = buf[pos] == 't';
+        literal(v ? "true" : "false");
+        valueRead();
+        return v;
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+        literal("null");
+        valueRead();
+    }
+
+    //跳过下一个值（包括嵌套的对象和数组）
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            Token t = peek();
+            switch (t) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    level++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    level++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    level--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    level--;
+                    break;
+                case NAME:
+                    consume(t);
+                    readStringBytes();
+                    afterName = true;
+                    break;
+                case STRING:
+                    consume(t);
+                    readStringBytes();
+                    valueRead();
+                    break;
+                case NUMBER:
+                    consume(t);
+                    readNumberBytes();
+                    valueRead();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw new EOFException("Unexpected end of JSON");
+            }
+        } while (level > 0);
+    }
+
+    /**
+     * 读取一个值并转换为指定类型，支持String、基本类型及其包装类、枚举、byte[]（Base64）、
+     * 上述类型的数组以及BinaryCodec支持的record/普通类。对象中不认识的字段会被跳过。
+     * List等集合没有元素类型，用readList()读取。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T readValue(Class<T> type) throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            if (type.isPrimitive()) {
+                throw syntax("null for " + type.getName());
+            }
+            return null;
+        }
+        if (type.isArray() && type != byte[].class) {
+            List<?> list = readList(type.getComponentType());
+            Object array = Array.newInstance(type.getComponentType(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Object v = list.get(i);
+                if (v == null && type.getComponentType().isPrimitive()) {
+                    throw syntax("null for " + type.getComponentType().getName());
+                }
+                Array.set(array, i, v);
+            }
+            return (T) array;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Use readList() for " + type.getName());
+        }
+        switch (BinaryCodec.kindOf(type)) {
+            case BOOLEAN:
+                return (T) (Boolean) nextBoolean();
+            case BYTE:
+                return (T) (Byte) (byte) nextInt();
+            case SHORT:
+                return (T) (Short) (short) nextInt();
+            case INT:
+                return (T) (Integer) nextInt();
+            case LONG:
+                return (T) (Long) nextLong();
+            case FLOAT:
+                return (T) (Float) (float) nextDouble();
+            case DOUBLE:
+                return (T) (Double) nextDouble();
+            case CHAR:
+                String c = nextString();
+                if (c.length() != 1) {
+                    throw syntax("Expected a char but was " + c);
+                }
+                return (T) (Character) c.charAt(0);
+            case STRING:
+                return (T) nextString();
+            case BYTES:
+                return (T) Base64.getDecoder().decode(nextString());
+            case ENUM:
+                return (T) Enum.valueOf(type.asSubclass(Enum.class), nextString());
+            default:
+                return readObject(type);
+        }
+    }
+
+    //读取一个JSON数组，每个元素按readValue(elementType)转换
+    public <E> List<E> readList(Class<E> elementType) throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        List<E> list = new ArrayList<>();
+        beginArray();
+        while (hasNext()) {
+            list.add(readValue(elementType));
+        }
+        endArray();
+        return list;
+    }
+
+    private <T> T readObject(Class<T> type) throws IOException {
+        BinaryCodec<T> codec = BinaryCodec.shape(type);
+        BinaryCodec.Property[] properties = codec.properties();
+        byte[][] names = NAMES.get(type);
+        Object[] values = codec.newValues();
+        beginObject();
+        while (hasNext()) {
+            consume(Token.NAME);
+            readStringBytes();
+            afterName = true;
+            int index = -1;
+            for (int i = 0; i < names.length; i++) {
+                if (Arrays.equals(names[i], 0, names[i].length, scratch, 0, scratchLen)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                skipValue();
+            } else {
+                BinaryCodec.Property p = properties[index];
+                values[p.index] = readValue(p.type);
+            }
+        }
+        endObject();
+        return codec.create(values);
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token t = peek();
+        if (t != expected) {
+            throw syntax("Expected " + expected + " but was " + t);
+        }
+        peeked = null;
+    }
+
+    private void push(boolean object) {
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+            nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+        }
+        objects[depth] = object;
+        nonEmpty[depth] = false;
+        depth++;
+        afterName = false;
+    }
+
+    private void pop() {
+        depth--;
+        valueRead();
+    }
+
+    //一个值读完：当前层需要逗号，当前对象等待下一个名字
+    private void valueRead() {
+        if (depth > 0) {
+            nonEmpty[depth - 1] = true;
+        }
+        afterName = false;
+    }
+
+    //跳过空白，返回下一个字符（不消耗），流结束时返回-1
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fillBuffer()) {
+                return -1;
+            }
+            byte b = buf[pos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+            } else {
+                return b & 0xFF;
+            }
+        }
+    }
+
+    private void expect(int c, char expected) throws IOException {
+        if (c != expected) {
+            throw syntax(c == -1 ? "Unexpected end of JSON" : "Expected '" + expected + "' but was '" + (char) c + "'");
+        }
+        pos++;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            pos = limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private int nextByte() throws IOException {
+        if (pos == limit && !fillBuffer()) {
+            throw new EOFException("Unexpected end of JSON");
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private void literal(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (nextByte() != word.charAt(i)) {
+                throw syntax("Expected " + word);
+            }
+        }
+    }
+
+    //读取字符串并处理转义，结果是UTF-8字节，放在scratch中
+    private void readStringBytes() throws IOException {
+        scratchLen = 0;
+        pos++;      //开头的引号
+        while (true) {
+            //不含转义的一段直接整体复制
+            int start = pos;
+            while (pos < limit) {
+                byte b = buf[pos];
+                if (b == '"' || b == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            appendScratch(buf, start, pos - start);
+            int c = nextByte();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            } else {
+                //缓冲区用完了，nextByte()已经读入了新的数据
+                pos--;
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = nextByte();
+        switch (c) {
+            case 'n':
+                appendScratch('\n');
+                break;
+            case 't':
+                appendScratch('\t');
+                break;
+            case 'r':
+                appendScratch('\r');
+                break;
+            case 'b':
+                appendScratch('\b');
+                break;
+            case 'f':
+                appendScratch('\f');
+                break;
+            case 'u':
+                int cp = readHex4();
+                if (Character.isHighSurrogate((char) cp)) {
+                    if (nextByte() != '\\' || nextByte() != 'u') {
+                        throw syntax("Unpaired surrogate");
+                    }
+                    int low = readHex4();
+                    cp = Character.toCodePoint((char) cp, (char) low);
+                }
+                appendCodePoint(cp);
+                break;
+            case '"':
+            case '\\':
+            case '/':
+                appendScratch(c);
+                break;
+            default:
+                throw syntax("Bad escape \\" + (char) c);
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int d = Character.digit(nextByte(), 16);
+            if (d < 0) {
+                throw syntax("Bad \\u escape");
+            }
+            v = v << 4 | d;
+        }
+        return v;
+    }
+
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            appendScratch(cp);
+        } else if (cp < 0x800) {
+            appendScratch(0xC0 | cp >> 6);
+            appendScratch(0x80 | cp & 0x3F);
+        } else if (cp < 0x10000) {
+            appendScratch(0xE0 | cp >> 12);
+            appendScratch(0x80 | cp >> 6 & 0x3F);
+            appendScratch(0x80 | cp & 0x3F);
+        } else {
+            appendScratch(0xF0 | cp >> 18);
+            appendScratch(0x80 | cp >> 12 & 0x3F);
+            appendScratch(0x80 | cp >> 6 & 0x3F);
+            appendScratch(0x80 | cp & 0x3F);
+        }
+    }
+
+    private void readNumberBytes() throws IOException {
+        scratchLen = 0;
+        while (true) {
+            if (pos == limit && !fillBuffer()) {
+                break;
+            }
+            byte b = buf[pos];
+            if (b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                appendScratch(b);
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void appendScratch(int b) {
+        if (scratchLen == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLen * 2);
+        }
+        scratch[scratchLen++] = (byte) b;
+    }
+
+    private void appendScratch(byte[] b, int off, int len) {
+        if (scratchLen + len > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, scratchLen + len));
+        }
+        System.arraycopy(b, off, scratch, scratchLen, len);
+        scratchLen += len;
+    }
+
+    private IOException syntax(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
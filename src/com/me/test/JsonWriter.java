@@ -0,0 +1,345 @@
+package com.me.test;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * 流式JSON输出，直接把UTF-8字节写入OutputStream。
+ * 不构建中间的树结构，字符串逐个字符转义并编码到内部的byte[]缓冲区，不经过String.getBytes()或char[]。
+ * writeValue()可以直接输出基本类型、String以及record/普通类的对象（字段信息来自BinaryCodec）。
+ */
+public class JsonWriter implements Closeable, Flushable {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    //每一层的状态：是否已经写过元素，当前是不是在等待对象的值
+    private static final int EMPTY = 0;
+    private static final int NONEMPTY = 1;
+    private static final int AFTER_NAME = 2;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    //嵌套的对象/数组：true表示对象
+    private boolean[] objects = new boolean[16];
+    private int[] states = new int[16];
+    private int depth;
+    //顶层的多个值用换行分隔（NDJSON）
+    private boolean topLevelWritten;
+
+    public JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public JsonWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 32)];
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open(true, '{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close(true, '}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open(false, '[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(false, ']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || !objects[depth - 1] || states[depth - 1] == AFTER_NAME) {
+            throw new IllegalStateException("name() must be called inside an object");
+        }
+        if (states[depth - 1] == NONEMPTY) {
+            put((byte) ',');
+        }
+        writeString(name);
+        put((byte) ':');
+        states[depth - 1] = AFTER_NAME;
+        return this;
+    }
+
+    public JsonWriter value(String s) throws IOException {
+        if (s == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(s);
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException {
+        beforeValue();
+        writeLong(v);
+        return this;
+    }
+
+    public JsonWriter value(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            throw new IllegalArgumentException("JSON does not allow " + v);
+        }
+        beforeValue();
+        if (v == (long) v && Math.abs(v) < 1L << 53 && (v != 0 || 1 / v > 0)) {
+            //整数值不需要经过Double.toString()
+            writeLong((long) v);
+            ensure(2);
+            buf[pos++] = '.';
+            buf[pos++] = '0';
+        } else {
+            writeAscii(Double.toString(v));
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean v) throws IOException {
+        beforeValue();
+        write(v ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * 输出任意值：null、String、数字、Boolean、Character、枚举、byte[]（Base64）、
+     * 数组、Iterable、Map以及BinaryCodec支持的record/普通类对象。
+     */
+    public JsonWriter writeValue(Object v) throws IOException {
+        if (v == null) {
+            return nullValue();
+        } else if (v instanceof String) {
+            return value((String) v);
+        } else if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+            return value(((Number) v).longValue());
+        } else if (v instanceof Double || v instanceof Float) {
+            return value(((Number) v).doubleValue());
+        } else if (v instanceof Boolean) {
+            return value((boolean) (Boolean) v);
+        } else if (v instanceof Character || v instanceof Enum) {
+            return value(v instanceof Enum ? ((Enum<?>) v).name() : v.toString());
+        } else if (v instanceof byte[]) {
+            return value(Base64.getEncoder().encodeToString((byte[]) v));
+        } else if (v.getClass().isArray()) {
+            beginArray();
+            for (int i = 0, n = Array.getLength(v); i < n; i++) {
+                writeValue(Array.get(v, i));
+            }
+            return endArray();
+        } else if (v instanceof Iterable) {
+            beginArray();
+            for (Object o : (Iterable<?>) v) {
+                writeValue(o);
+            }
+            return endArray();
+        } else if (v instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+                name(String.valueOf(e.getKey()));
+                writeValue(e.getValue());
+            }
+            return endObject();
+        }
+        BinaryCodec<?> codec = BinaryCodec.shape(v.getClass());
+        beginObject();
+        for (BinaryCodec.Property p : codec.properties()) {
+            Object fieldValue = codec.get(p, v);
+            //和BinaryCodec一样，null字段不输出
+            if (fieldValue != null) {
+                name(p.name);
+                writeValue(fieldValue);
+            }
+        }
+        return endObject();
+    }
+
+    private JsonWriter open(boolean object, char c) throws IOException {
+        beforeValue();
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        objects[depth] = object;
+        states[depth] = EMPTY;
+        depth++;
+        put((byte) c);
+        return this;
+    }
+
+    private JsonWriter close(boolean object, char c) throws IOException {
+        if (depth == 0 || objects[depth - 1] != object || states[depth - 1] == AFTER_NAME) {
+            throw new IllegalStateException("Unexpected " + c);
+        }
+        depth--;
+        put((byte) c);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (depth == 0) {
+            if (topLevelWritten) {
+                put((byte) '\n');
+            }
+            topLevelWritten = true;
+            return;
+        }
+        int state = states[depth - 1];
+        if (objects[depth - 1]) {
+            if (state != AFTER_NAME) {
+                throw new IllegalStateException("Object values must be preceded by name()");
+            }
+        } else if (state == NONEMPTY) {
+            put((byte) ',');
+        }
+        states[depth - 1] = NONEMPTY;
+    }
+
+    //把字符串转义并按UTF-8编码写入缓冲区
+    private void writeString(String s) throws IOException {
+        put((byte) '"');
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            ensure(12);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x80) {
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '"':
+                        buf[pos++] = '"';
+                        break;
+                    case '\\':
+                        buf[pos++] = '\\';
+                        break;
+                    case '\n':
+                        buf[pos++] = 'n';
+                        break;
+                    case '\r':
+                        buf[pos++] = 'r';
+                        break;
+                    case '\t':
+                        buf[pos++] = 't';
+                        break;
+                    case '\b':
+                        buf[pos++] = 'b';
+                        break;
+                    case '\f':
+                        buf[pos++] = 'f';
+                        break;
+                    default:
+                        buf[pos++] = 'u';
+                        buf[pos++] = '0';
+                        buf[pos++] = '0';
+                        buf[pos++] = HEX[c >> 4];
+                        buf[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buf[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buf[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                //单独的代理字符不能编码为UTF-8，用转义保留原值
+                buf[pos++] = '\\';
+                buf[pos++] = 'u';
+                buf[pos++] = HEX[c >> 12];
+                buf[pos++] = HEX[c >> 8 & 0xF];
+                buf[pos++] = HEX[c >> 4 & 0xF];
+                buf[pos++] = HEX[c & 0xF];
+            } else {
+                buf[pos++] = (byte) (0xE0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        put((byte) '"');
+    }
+
+    //逐位写出十进制整数，不创建String
+    private void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            write(MIN_LONG);
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void write(byte[] b) throws IOException {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    private void put(byte b) throws IOException {
+        ensure(1);
+        buf[pos++] = b;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+}
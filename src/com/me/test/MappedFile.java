@@ -0,0 +1,259 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 内存映射的只读大文件。
+ * 一个MappedByteBuffer最多只能映射2GB，所以文件按1GB的窗口分段映射（用到时才映射），文件大小不受限制。
+ * 文件可以切分成若干按分隔符（例如换行）对齐的分片，每个分片只包含完整的记录，
+ * 分片可以作为并行Stream处理，也可以交给fork-join并行归约，所有核一起扫描同一个文件。
+ */
+public class MappedFile implements AutoCloseable {
+
+    //窗口大小，与ZipExtractor单次映射的上限相同
+    static final long WINDOW = 1L << 30;
+    //默认分片的最小大小，太小的分片调度开销会超过扫描本身
+    static final long MIN_SPLIT = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final AtomicReferenceArray<MappedByteBuffer> windows;
+
+    public static MappedFile open(Path file) throws IOException {
+        return new MappedFile(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    public MappedFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.windows = new AtomicReferenceArray<>((int) ((size + WINDOW - 1) / WINDOW));
+    }
+
+    public long size() {
+        return size;
+    }
+
+    //读取任意位置的一个字节
+    public byte get(long position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+        return window((int) (position / WINDOW)).get((int) (position % WINDOW));
+    }
+
+    //第index个窗口，第一次访问时才映射；多个线程同时映射时只保留一个
+    private MappedByteBuffer window(int index) {
+        MappedByteBuffer w = windows.get(index);
+        if (w == null) {
+            long start = index * WINDOW;
+            try {
+                w = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (!windows.compareAndSet(index, null, w)) {
+                w = windows.get(index);
+            }
+        }
+        return w;
+    }
+
+    /**
+     * [position, position + length)范围的只读视图，length不能超过2GB。
+     * 范围在一个窗口内时直接复用窗口的映射，跨窗口时单独映射。
+     */
+    public ByteBuffer slice(long position, int length) {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("position " + position + ", length " + length + ", size " + size);
+        }
+        int index = (int) (position / WINDOW);
+        int offset = (int) (position % WINDOW);
+        if (offset + (long) length <= WINDOW) {
+            return window(index).slice(offset, length);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //按分隔符切分，分片大小根据CPU数自动选择
+    public List<Split> splits(byte delimiter) {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        return splits(Math.max(MIN_SPLIT, size / (parallelism * 4L)), delimiter);
+    }
+
+    /**
+     * 把文件切分成大约splitSize大小的分片。
+     * 每个分片的结尾都延伸到下一个分隔符（包含分隔符），所以记录不会被切断；
+     * 一条记录比WINDOW还长时只能在WINDOW处强行切开。
+     */
+    public List<Split> splits(long splitSize, byte delimiter) {
+        if (splitSize <= 0) {
+            throw new IllegalArgumentException("splitSize must be positive");
+        }
+        splitSize = Math.min(splitSize, WINDOW);
+        List<Split> result = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + splitSize, size);
+            long limit = Math.min(start + WINDOW, size);
+            //从名义上的边界向后找分隔符
+            while (end < limit && get(end - 1) != delimiter) {
+                end++;
+            }
+            result.add(new Split(start, (int) (end - start)));
+            start = end;
+        }
+        return result;
+    }
+
+    //分片的并行Stream
+    public Stream<Split> parallelSplits(byte delimiter) {
+        return splits(delimiter).parallelStream();
+    }
+
+    /**
+     * 用fork-join并行处理所有分片：每个分片交给mapper，结果两两用combiner合并。
+     * 空文件没有分片，直接返回identity。
+     * 例如统计行数：reduce((byte) '\n', 0L, s -> s.count((byte) '\n'), Long::sum)
+     */
+    public <R> R reduce(byte delimiter, R identity, Function<? super Split, R> mapper, BinaryOperator<R> combiner) {
+        List<Split> splits = splits(delimiter);
+        if (splits.isEmpty()) {
+            return identity;
+        }
+        return ForkJoinPool.commonPool().invoke(new ReduceTask<>(splits, 0, splits.size(), mapper, combiner));
+    }
+
+    @Override
+    public void close() throws IOException {
+        //映射在MappedByteBuffer被回收之前一直有效，关闭通道不影响已经映射的窗口
+        channel.close();
+    }
+
+    /**
+     * 二分分片列表的fork-join任务。
+     */
+    private static final class ReduceTask<R> extends RecursiveTask<R> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Split> splits;
+        private final int from;
+        private final int to;
+        private final Function<? super Split, R> mapper;
+        private final BinaryOperator<R> combiner;
+
+        ReduceTask(List<Split> splits, int from, int to, Function<? super Split, R> mapper,
+                   BinaryOperator<R> combiner) {
+            this.splits = splits;
+            this.from = from;
+            this.to = to;
+            this.mapper = mapper;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                return mapper.apply(splits.get(from));
+            }
+            int mid = (from + to) >>> 1;
+            ReduceTask<R> left = new ReduceTask<>(splits, from, mid, mapper, combiner);
+            left.fork();
+            R right = new ReduceTask<>(splits, mid, to, mapper, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * 文件中的一个分片，只包含完整的记录。
+     */
+    public final class Split {
+
+        private final long start;
+        private final int length;
+
+        Split(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        //分片内容的只读视图
+        public ByteBuffer buffer() {
+            return slice(start, length);
+        }
+
+        //统计字节b出现的次数，例如按'\n'统计行数
+        public long count(byte b) {
+            ByteBuffer buf = buffer();
+            long n = 0;
+            for (int i = 0, limit = buf.limit(); i < limit; i++) {
+                if (buf.get(i) == b) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        /**
+         * 按分隔符遍历分片中的记录，不包含分隔符。
+         * 传给action的ByteBuffer是复用的视图，只在回调期间有效。
+         */
+        public void forEachRecord(byte delimiter, Consumer<? super ByteBuffer> action) {
+            ByteBuffer buf = buffer();
+            ByteBuffer view = buf.duplicate();
+            int begin = 0;
+            int limit = buf.limit();
+            for (int i = 0; i < limit; i++) {
+                if (buf.get(i) == delimiter) {
+                    view.limit(i).position(begin);
+                    action.accept(view);
+                    view.limit(limit);
+                    begin = i + 1;
+                }
+            }
+            if (begin < limit) {
+                view.limit(limit).position(begin);
+                action.accept(view);
+            }
+        }
+
+        //按字符解码分片，例如逐行处理文本
+        public FastTextReader reader(Charset charset) {
+            return new FastTextReader(buffer(), charset);
+        }
+
+        @Override
+        public String toString() {
+            return "Split[" + start + ", " + (start + length) + ")";
+        }
+    }
+
+}
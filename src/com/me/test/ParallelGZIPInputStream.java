@@ -0,0 +1,305 @@
+package com.me.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 多线程gzip解压输入流。
+ * ParallelGZIPOutputStream写出的每个成员都在头部记录了自己的长度，
+ * 因此可以不解压就读出整个成员，交给线程池并行解压，再按顺序返回数据。
+ * 遇到不带长度信息的普通gzip成员，或者记录的长度超过ParallelGZIPOutputStream的块大小上限时，
+ * 剩下的数据退化为GZIPInputStream顺序解压，缓冲区的大小不会由输入数据决定。
+ * 读入的成员和解压结果都使用BufferPool中的缓冲区，读完后归还。
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    //ParallelGZIPOutputStream写出的成员的最大长度，头部声明的长度超过它时不预先分配缓冲区
+    private static final int MAX_MEMBER_SIZE =
+            ParallelGZIPOutputStream.maxMemberSize(ParallelGZIPOutputStream.MAX_BLOCK_SIZE);
+
+    private final InputStream in;
+    private final ExecutorService pool;
+    private final boolean ownPool;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    //与pending一一对应的解压后长度，取自成员尾部的ISIZE
+    private final ArrayDeque<Integer> sizes = new ArrayDeque<>();
+
+    //当前正在被读取的已解压数据，数组借自BufferPool，有效数据到limit为止
+    private byte[] current = new byte[0];
+    private int pos;
+    private int limit;
+    //遇到普通gzip成员后改用顺序解压
+    private InputStream fallback;
+    private boolean eof;
+    private boolean closed;
+
+    public ParallelGZIPInputStream(InputStream in) {
+        this(in, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelGZIPInputStream(InputStream in, int parallelism) {
+        this(in, Executors.newFixedThreadPool(parallelism), true, parallelism);
+    }
+
+    //使用外部线程池，关闭流时不会关闭线程池
+    public ParallelGZIPInputStream(InputStream in, ExecutorService pool, int parallelism) {
+        this(in, pool, false, parallelism);
+    }
+
+    private ParallelGZIPInputStream(InputStream in, ExecutorService pool, boolean ownPool, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.in = in;
+        this.pool = pool;
+        this.ownPool = ownPool;
+        this.window = parallelism * 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return fallback != null ? fallback.read() : -1;
+        }
+        return current[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return fallback != null ? fallback.read(b, off, len) : -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - pos;
+    }
+
+    //保证current中有未读数据，返回false表示已解压完或者改为顺序解压
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (pos == limit) {
+            readAhead();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            byte[] data = await(pending.peek());
+            pending.poll();
+            BufferPool.shared().release(current);
+            current = data;
+            limit = sizes.poll();
+            pos = 0;
+        }
+        return true;
+    }
+
+    //读入成员并提交解压，直到预读的成员数达到上限
+    private void readAhead() throws IOException {
+        while (!eof && fallback == null && pending.size() < window) {
+            byte[] member = readMember();
+            if (member != null) {
+                int size = ParallelGZIPOutputStream.memberSize(member);
+                int isize = getInt(member, size - 4);
+                if (isize < 0 || isize > ParallelGZIPOutputStream.MAX_BLOCK_SIZE) {
+                    //解压后的长度超出上限，不是ParallelGZIPOutputStream写出的，连同这个成员一起顺序解压
+                    byte[] copy = Arrays.copyOf(member, size);
+                    BufferPool.shared().release(member);
+                    fallback = new GZIPInputStream(new SequenceInputStream(new ByteArrayInputStream(copy), in), 64 * 1024);
+                    break;
+                }
+                sizes.add(isize);
+                pending.add(pool.submit(() -> {
+                    try {
+                        return inflate(member);
+                    } finally {
+                        BufferPool.shared().release(member);
+                    }
+                }));
+            }
+        }
+    }
+
+    //读取一个完整的成员；流结束或改为顺序解压时返回null
+    private byte[] readMember() throws IOException {
+        byte[] header = new byte[ParallelGZIPOutputStream.HEADER_SIZE];
+        int n = in.readNBytes(header, 0, 10);
+        if (n == 0) {
+            eof = true;
+            return null;
+        }
+        if (n < 10 || (header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        }
+        int len = 10;
+        if ((header[3] & FEXTRA) != 0) {
+            len += in.readNBytes(header, 10, 2);
+            int xlen = len == 12 ? (header[10] & 0xFF) | (header[11] & 0xFF) << 8 : -1;
+            if (xlen == 8) {
+                len += in.readNBytes(header, 12, 8);
+                if (len == ParallelGZIPOutputStream.HEADER_SIZE
+                        && header[12] == ParallelGZIPOutputStream.SUBFIELD_ID1
+                        && header[13] == ParallelGZIPOutputStream.SUBFIELD_ID2) {
+                    int size = getInt(header, 16);
+                    if (size < len + ParallelGZIPOutputStream.TRAILER_SIZE) {
+                        throw new ZipException("Bad member size: " + size);
+                    }
+                    if (size > MAX_MEMBER_SIZE) {
+                        //声明的长度超出上限，交给下面的顺序解压
+                        return fallback(header, len);
+                    }
+                    byte[] member = BufferPool.shared().acquire(size);
+                    System.arraycopy(header, 0, member, 0, len);
+                    if (in.readNBytes(member, len, size - len) != size - len) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                    return member;
+                }
+            }
+        }
+        return fallback(header, len);
+    }
+
+    //不是ParallelGZIPOutputStream写出的成员：把已读的头部放回去，后面全部顺序解压
+    private byte[] fallback(byte[] header, int len) throws IOException {
+        fallback = new GZIPInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(header, 0, len), in), 64 * 1024);
+        return null;
+    }
+
+    /**
+     * 在工作线程中解压一个ParallelGZIPOutputStream写出的成员，并校验CRC和长度。
+     * member可以比成员长，成员长度从头部读取；返回的数组借自BufferPool，长度可能大于解压结果。
+     */
+    static byte[] inflate(byte[] member) throws IOException {
+        int off = 10;
+        int flags = member[3] & 0xFF;
+        if ((flags & FEXTRA) != 0) {
+            off += 2 + ((member[10] & 0xFF) | (member[11] & 0xFF) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (member[off++] != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (member[off++] != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            off += 2;
+        }
+        int trailer = ParallelGZIPOutputStream.memberSize(member) - ParallelGZIPOutputStream.TRAILER_SIZE;
+        long crc = getInt(member, trailer) & 0xFFFFFFFFL;
+        int size = getInt(member, trailer + 4);
+        if (size < 0 || size > ParallelGZIPOutputStream.MAX_BLOCK_SIZE) {
+            throw new ZipException("Bad member size: " + (size & 0xFFFFFFFFL));
+        }
+        byte[] data = BufferPool.shared().acquire(size);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, off, trailer - off);
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int r = inflater.inflate(data, n, size - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+            //输出刚好填满时结束标记可能还没处理，再多解压一次确认数据到此为止
+            if (n == size && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                throw new ZipException("Corrupt GZIP member");
+            }
+            if (n != size || !inflater.finished()) {
+                throw new ZipException("Corrupt GZIP member");
+            }
+        } catch (DataFormatException e) {
+            BufferPool.shared().release(data);
+            throw new ZipException(e.getMessage());
+        } catch (IOException e) {
+            BufferPool.shared().release(data);
+            throw e;
+        } finally {
+            inflater.end();
+        }
+        CRC32 check = new CRC32();
+        check.update(data, 0, size);
+        if (check.getValue() != crc) {
+            BufferPool.shared().release(data);
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        return data;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    private static byte[] await(Future<byte[]> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+        sizes.clear();
+        BufferPool.shared().release(current);
+        current = new byte[0];
+        pos = limit = 0;
+        if (ownPool) {
+            pool.shutdown();
+        }
+        if (fallback != null) {
+            fallback.close();
+        } else {
+            in.close();
+        }
+    }
+
+}
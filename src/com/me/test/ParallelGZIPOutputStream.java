@@ -0,0 +1,258 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多线程gzip压缩输出流（类似pigz）。
+ * 写入的数据按块切分，每块在线程池中独立压缩成一个完整的gzip成员（member），
+ * 再按顺序写出，多个成员首尾相接就是一个合法的多成员gzip文件，gzip/GZIPInputStream都能直接解压。
+ * 每个成员的头部扩展字段（FEXTRA）里记录了成员的总长度，
+ * ParallelGZIPInputStream据此不用解压就能切分成员，从而并行解压。
+ * 待压缩的块和压缩结果都使用BufferPool中的缓冲区，写出后归还。
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+    //扩展子字段的标识 'P','G'，内容是4字节的成员总长度
+    static final int SUBFIELD_ID1 = 'P';
+    static final int SUBFIELD_ID2 = 'G';
+    //头部：10字节固定头 + 2字节XLEN + 4字节子字段头 + 4字节成员长度
+    static final int HEADER_SIZE = 20;
+    static final int TRAILER_SIZE = 8;
+
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    //块的最大长度，ParallelGZIPInputStream据此判断头部和尾部记录的长度是否可信
+    static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final boolean ownPool;
+    private final int blockSize;
+    private final int level;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int count;
+    private boolean written;
+    private boolean closed;
+
+    public ParallelGZIPOutputStream(OutputStream out) {
+        this(out, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelGZIPOutputStream(OutputStream out, int parallelism) {
+        this(out, Executors.newFixedThreadPool(parallelism), true, parallelism,
+                DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * 使用外部线程池，关闭流时不会关闭线程池。
+     *
+     * @param parallelism 最多同时压缩的块数
+     * @param blockSize   每个gzip成员压缩前的大小
+     * @param level       压缩级别
+     */
+    public ParallelGZIPOutputStream(OutputStream out, ExecutorService pool, int parallelism,
+                                    int blockSize, int level) {
+        this(out, pool, false, parallelism, blockSize, level);
+    }
+
+    private ParallelGZIPOutputStream(OutputStream out, ExecutorService pool, boolean ownPool,
+                                     int parallelism, int blockSize, int level) {
+        if (parallelism <= 0 || blockSize <= 0) {
+            throw new IllegalArgumentException("parallelism and blockSize must be positive");
+        }
+        if (blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must not exceed " + MAX_BLOCK_SIZE);
+        }
+        this.out = out;
+        this.pool = pool;
+        this.ownPool = ownPool;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.window = parallelism * 2;
+        this.block = BufferPool.shared().acquire(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == blockSize) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submit();
+            }
+        }
+    }
+
+    //把当前块交给线程池压缩，在途的块太多时先写出最早的块
+    private void submit() throws IOException {
+        byte[] data = block;
+        int len = count;
+        pending.add(pool.submit(() -> {
+            try {
+                return compress(data, len, level);
+            } finally {
+                BufferPool.shared().release(data);
+            }
+        }));
+        written = true;
+        block = BufferPool.shared().acquire(blockSize);
+        count = 0;
+        while (pending.size() >= window) {
+            drainOne();
+        }
+    }
+
+    private void drainOne() throws IOException {
+        try {
+            byte[] member = pending.poll().get();
+            out.write(member, 0, memberSize(member));
+            BufferPool.shared().release(member);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 把一块数据压缩成一个完整的gzip成员。
+     * 返回的数组借自BufferPool，长度可能大于成员，成员的实际长度用memberSize()读取，用完后应归还。
+     */
+    static byte[] compress(byte[] data, int len, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, len);
+            deflater.finish();
+            byte[] member = BufferPool.shared().acquire(maxMemberSize(len));
+            int pos = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (pos == member.length - TRAILER_SIZE) {
+                    byte[] bigger = BufferPool.shared().acquire(member.length * 2);
+                    System.arraycopy(member, 0, bigger, 0, pos);
+                    BufferPool.shared().release(member);
+                    member = bigger;
+                }
+                pos += deflater.deflate(member, pos, member.length - TRAILER_SIZE - pos);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, len);
+            int size = pos + TRAILER_SIZE;
+
+            member[0] = (byte) 0x1f;
+            member[1] = (byte) 0x8b;
+            member[2] = 8;      //CM：deflate
+            member[3] = 4;      //FLG：FEXTRA
+            //MTIME为0，XFL为0
+            member[9] = (byte) 255;     //OS：unknown
+            putShort(member, 10, 8);    //XLEN
+            member[12] = (byte) SUBFIELD_ID1;
+            member[13] = (byte) SUBFIELD_ID2;
+            putShort(member, 14, 4);
+            putInt(member, 16, size);
+            putInt(member, pos, (int) crc.getValue());
+            putInt(member, pos + 4, len);
+            return member;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //len字节的块压缩成的成员的最大长度，deflate最坏情况下比原数据略大
+    static int maxMemberSize(int len) {
+        return HEADER_SIZE + len + len / 1000 + 64 + TRAILER_SIZE;
+    }
+
+    //成员的总长度记录在头部的PG子字段中
+    static int memberSize(byte[] member) {
+        return (member[16] & 0xFF) | (member[17] & 0xFF) << 8 | (member[18] & 0xFF) << 16 | (member[19] & 0xFF) << 24;
+    }
+
+    private static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        putShort(b, off, v);
+        putShort(b, off + 2, v >>> 16);
+    }
+
+    //写出所有已提交的块，但不结束gzip流
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            drainOne();
+        }
+        out.flush();
+    }
+
+    //写完所有数据，但不关闭底层的流
+    public void finish() throws IOException {
+        ensureOpen();
+        //空的输入也要输出一个空的成员，保证是合法的gzip文件
+        if (count > 0 || !written) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            drainOne();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+            out.close();
+        } finally {
+            closed = true;
+            for (Future<byte[]> f : pending) {
+                f.cancel(true);
+            }
+            if (block != null) {
+                BufferPool.shared().release(block);
+                block = null;
+            }
+            if (ownPool) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+}
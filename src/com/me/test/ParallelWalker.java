@@ -0,0 +1,228 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.DirectoryIteratorException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 并行遍历目录树，以Stream&lt;Path&gt;的形式逐个输出。
+ * 目录用DirectoryStream逐项读取（不会一次性生成整个File[]），读到的路径放入有界队列，队列满时遍历线程阻塞等待消费者。
+ * 发现的子目录只有在排队的任务不多时才交给线程池，否则由当前线程像Files.walk()一样深度优先地直接进入，
+ * 所以排队的任务数有上限，每个线程只为当前路径上的每一层保留一个打开的DirectoryStream，内存占用不随目录树的大小增长。
+ * 输出顺序不固定。和Files.walk()一样，返回的Stream必须关闭。
+ */
+public class ParallelWalker implements Iterator<Path> {
+
+    //队列结束标记
+    private static final Object END = new Object();
+
+    private final ExecutorService pool;
+    private final BlockingQueue<Object> queue;
+    private final int maxDepth;
+    //还没有读完的任务数，减到0时遍历结束
+    private final AtomicInteger pending = new AtomicInteger();
+    //线程池中排队、还没有开始执行的任务数上限；线程池的任务队列本身是无界的
+    private final Semaphore queued;
+    private volatile boolean closed;
+    private Object next;
+
+    private ParallelWalker(int parallelism, int capacity, int maxDepth) {
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "parallel-walker");
+            t.setDaemon(true);
+            return t;
+        });
+        //多留两个位置，start()在调用线程中放入root和结束标记时不会阻塞
+        this.queue = new ArrayBlockingQueue<>(capacity + 2);
+        this.maxDepth = maxDepth;
+        this.queued = new Semaphore(parallelism * 4);
+    }
+
+    public static Stream<Path> walk(Path root) {
+        return walk(root, Runtime.getRuntime().availableProcessors(), 4096, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param parallelism 同时读取目录的线程数
+     * @param capacity    已读出但还没被消费的路径数上限
+     * @param maxDepth    最大深度，0表示只返回root本身
+     */
+    public static Stream<Path> walk(Path root, int parallelism, int capacity, int maxDepth) {
+        if (parallelism <= 0 || capacity <= 0 || maxDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        ParallelWalker walker = new ParallelWalker(parallelism, capacity, maxDepth);
+        walker.start(root);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walker,
+                Spliterator.DISTINCT | Spliterator.NONNULL), false).onClose(walker::close);
+    }
+
+    private void start(Path root) {
+        //和Files.walk()一样，第一个元素是root本身
+        offer(root);
+        if (maxDepth > 0 && Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            queued.acquireUninterruptibly();
+            submit(root, 1);
+        } else {
+            offer(END);
+        }
+    }
+
+    //调用前已经取得queued的一个许可，任务开始执行时归还
+    private void submit(Path dir, int depth) {
+        pending.incrementAndGet();
+        try {
+            pool.execute(() -> scan(dir, depth));
+        } catch (RejectedExecutionException e) {
+            //已经关闭
+            queued.release();
+            pending.decrementAndGet();
+        }
+    }
+
+    //读取dir的子树：排队的任务不多时子目录交给其他线程，否则在当前线程中深度优先地读取
+    private void scan(Path dir, int depth) {
+        queued.release();
+        Deque<Level> stack = new ArrayDeque<>();
+        try {
+            open(stack, dir, depth);
+            while (!stack.isEmpty()) {
+                if (closed) {
+                    return;
+                }
+                Level level = stack.peek();
+                Path entry;
+                try {
+                    if (!level.entries.hasNext()) {
+                        stack.pop().close();
+                        continue;
+                    }
+                    entry = level.entries.next();
+                } catch (DirectoryIteratorException e) {
+                    offer(new UncheckedIOException(e.getCause()));
+                    stack.pop().close();
+                    continue;
+                }
+                offer(entry);
+                if (level.depth < maxDepth && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    if (queued.tryAcquire()) {
+                        submit(entry, level.depth + 1);
+                    } else {
+                        open(stack, entry, level.depth + 1);
+                    }
+                }
+            }
+        } finally {
+            while (!stack.isEmpty()) {
+                stack.pop().close();
+            }
+            if (pending.decrementAndGet() == 0) {
+                offer(END);
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void open(Deque<Level> stack, Path dir, int depth) {
+        try {
+            stack.push(new Level(Files.newDirectoryStream(dir), depth));
+        } catch (IOException e) {
+            offer(new UncheckedIOException(e));
+        }
+    }
+
+    //放入队列，队列满时阻塞
+    private void offer(Object o) {
+        try {
+            if (!closed) {
+                queue.put(o);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+        if (next instanceof UncheckedIOException) {
+            UncheckedIOException e = (UncheckedIOException) next;
+            next = null;
+            throw e;
+        }
+        if (next == END) {
+            //保持结束状态，重复调用hasNext()不会再阻塞
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Path p = (Path) next;
+        next = null;
+        return p;
+    }
+
+    //停止遍历：阻塞在队列上的线程会被中断
+    private void close() {
+        closed = true;
+        pool.shutdownNow();
+        queue.clear();
+        next = END;
+    }
+
+    /**
+     * 正在读取的一层目录，entries是这一层的子项；depth是子项的深度。
+     */
+    private static final class Level {
+
+        final DirectoryStream<Path> stream;
+        final Iterator<Path> entries;
+        final int depth;
+
+        Level(DirectoryStream<Path> stream, int depth) {
+            this.stream = stream;
+            this.entries = stream.iterator();
+            this.depth = depth;
+        }
+
+        void close() {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                //只是读取，关闭失败不影响结果
+            }
+        }
+    }
+
+}
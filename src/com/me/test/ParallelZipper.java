@@ -0,0 +1,622 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * 多线程压缩目录为zip包。
+ * 每个文件在线程池中各自压缩（raw deflate）到内存，过大或者共享的内存预算用完时溢出到临时文件，
+ * 然后按遍历顺序依次写入zip包，得到的是标准的zip文件（需要时自动使用ZIP64）。
+ * ZipOutputStream只能自己压缩数据，不能追加已经压缩好的数据，所以这里直接写zip格式。
+ * 读取源文件时向IoScheduler的作业申请，夜间归档可以用低优先级、限速的作业，不影响前台的I/O。
+ */
+public class ParallelZipper implements AutoCloseable {
+
+    //压缩结果超过这个大小就写到临时文件，避免大文件占满内存
+    static final int SPILL_THRESHOLD = 8 * 1024 * 1024;
+    //所有在压缩或等待写出的条目共用的内存预算，用完后新写入的数据直接写临时文件
+    static final long MEMORY_BUDGET = 64L * 1024 * 1024;
+    //zip中条目名的长度字段只有2个字节
+    private static final int MAX_NAME = 0xFFFF;
+
+    private static final int CHUNK = 64 * 1024;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final ExecutorService pool;
+    private final int window;
+    private final int level;
+    private final IoScheduler.Job job;
+    //剩余的内存预算，由所有zip()调用共享
+    private final AtomicLong memory = new AtomicLong(MEMORY_BUDGET);
+
+    public ParallelZipper() {
+        this(Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelZipper(int parallelism, int level) {
+        this(parallelism, level, IoScheduler.shared().defaultJob());
+    }
+
+    /**
+     * @param job 读取源文件时申请的作业
+     */
+    public ParallelZipper(int parallelism, int level, IoScheduler.Job job) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        //zip()会等所有任务结束才返回，工作线程用守护线程，忘了close()也不会阻止JVM退出
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "parallel-zipper");
+            t.setDaemon(true);
+            return t;
+        });
+        //最多有这么多个文件同时在压缩或等待写入
+        this.window = parallelism * 4;
+        this.level = level;
+        this.job = job;
+    }
+
+    //压缩dir目录下的所有文件和子目录，条目名使用相对路径，与Test.ziper()一致
+    public void zip(Path dir, OutputStream out) throws IOException {
+        zip(dir, out, null);
+    }
+
+    /**
+     * 压缩目录，同时把每个文件的CRC32C记入manifest（条目名作为名字），与压缩共用同一批缓冲区。
+     * 写出清单后可以用ChecksumManifest.verifyZip()校验zip包。
+     */
+    public void zip(Path dir, OutputStream out, ChecksumManifest manifest) throws IOException {
+        ZipWriter writer = new ZipWriter(out);
+        ArrayDeque<CompletableFuture<Entry>> pending = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    if (!d.equals(dir)) {
+                        String name = entryName(dir, d) + "/";
+                        long time = attrs.lastModifiedTime().toMillis();
+                        enqueue(pending, CompletableFuture.completedFuture(Entry.directory(name, time)), writer);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        String name = entryName(dir, file);
+                        long time = attrs.lastModifiedTime().toMillis();
+                        enqueue(pending, CompletableFuture.supplyAsync(() -> deflate(file, name, time, manifest), pool), writer);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            while (!pending.isEmpty()) {
+                writer.write(await(pending.poll()));
+            }
+            writer.finish();
+        } finally {
+            //出错时把还没写出的临时文件清理掉
+            for (CompletableFuture<Entry> f : pending) {
+                f.thenAccept(Entry::discard);
+            }
+        }
+    }
+
+    private void enqueue(ArrayDeque<CompletableFuture<Entry>> pending, CompletableFuture<Entry> f,
+                         ZipWriter writer) throws IOException {
+        pending.add(f);
+        //窗口满了就按顺序写出最早的条目
+        while (pending.size() > window) {
+            writer.write(await(pending.poll()));
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    static String entryName(Path base, Path p) {
+        //zip中的路径分隔符总是 /
+        StringBuilder sb = new StringBuilder();
+        for (Path part : base.relativize(p)) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    //在工作线程中压缩一个文件
+    private Entry deflate(Path file, String name, long time, ChecksumManifest manifest) {
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        Checksum crc32c = manifest == null ? null : ChecksumManifest.newChecksum();
+        //工作线程的缓冲区从池中借用，线程本地缓存保证每个线程反复拿到同一组
+        byte[] input = BufferPool.shared().acquire(CHUNK);
+        byte[] output = BufferPool.shared().acquire(CHUNK);
+        ByteBuffer inBuf = ByteBuffer.wrap(input);
+        long size = 0;
+        SpillOutputStream compressed = new SpillOutputStream(memory);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ); compressed) {
+            int n;
+            while ((n = read(ch, inBuf)) != -1) {
+                crc.update(input, 0, n);
+                if (crc32c != null) {
+                    crc32c.update(input, 0, n);
+                }
+                size += n;
+                deflater.setInput(input, 0, n);
+                while (!deflater.needsInput()) {
+                    int len = deflater.deflate(output);
+                    compressed.write(output, 0, len);
+                }
+                inBuf.clear();
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int len = deflater.deflate(output);
+                compressed.write(output, 0, len);
+            }
+            if (manifest != null) {
+                manifest.put(name, size, crc32c.getValue());
+            }
+            return new Entry(name, time, crc.getValue(), size, compressed);
+        } catch (IOException e) {
+            compressed.discard();
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+            BufferPool.shared().release(input);
+            BufferPool.shared().release(output);
+        }
+    }
+
+    //只在读的时候占用调度器，压缩时不占用
+    private int read(FileChannel ch, ByteBuffer buf) throws IOException {
+        int want = buf.remaining();
+        job.acquire(want);
+        int n = -1;
+        try {
+            n = ch.read(buf);
+            job.count(n);
+            return n;
+        } finally {
+            job.release(want - Math.max(n, 0));
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * 先写内存，超过阈值或者共享的内存预算用完后整体转移到临时文件的输出流。
+     */
+    static final class SpillOutputStream extends OutputStream {
+
+        //内存部分由池中的块拼接，增长时不复制
+        private PooledByteArrayOutputStream memory = new PooledByteArrayOutputStream();
+        //剩余的内存预算，内存中的数据占用预算，转移到文件或者丢弃时归还
+        private final AtomicLong budget;
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        SpillOutputStream(AtomicLong budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && (memory.size() + len > SPILL_THRESHOLD || !reserve(len))) {
+                file = Files.createTempFile("zip", ".deflate");
+                fileOut = Files.newOutputStream(file);
+                memory.writeTo(fileOut);
+                budget.addAndGet(memory.size());
+                memory.close();
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        //从预算中扣除len个字节，不够时返回false
+        private boolean reserve(int len) {
+            while (true) {
+                long left = budget.get();
+                if (left < len) {
+                    return false;
+                }
+                if (budget.compareAndSet(left, left - len)) {
+                    return true;
+                }
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (file == null) {
+                memory.writeTo(out);
+            } else {
+                Files.copy(file, out);
+            }
+        }
+
+        void discard() {
+            if (memory != null) {
+                budget.addAndGet(memory.size());
+                memory.close();
+                memory = null;
+            }
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+    }
+
+    /**
+     * 一个已经压缩好的条目。
+     */
+    static final class Entry {
+
+        final String name;
+        final long time;
+        final long crc;
+        final long size;
+        final SpillOutputStream data;
+
+        Entry(String name, long time, long crc, long size, SpillOutputStream data) {
+            this.name = name;
+            this.time = time;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        static Entry directory(String name, long time) {
+            return new Entry(name, time, 0, 0, null);
+        }
+
+        boolean isDirectory() {
+            return data == null;
+        }
+
+        long compressedSize() {
+            return data == null ? 0 : data.size();
+        }
+
+        void discard() {
+            if (data != null) {
+                data.discard();
+            }
+        }
+    }
+
+    /**
+     * 中央目录中的一条记录。
+     */
+    static final class CentralRecord {
+
+        final byte[] name;
+        final int method;
+        final long dosTime;
+        final long crc;
+        final long csize;
+        final long size;
+        final long localOffset;
+        final int externalAttrs;
+        final int flags;
+
+        CentralRecord(byte[] name, int method, long dosTime, long crc, long csize, long size,
+                      long localOffset, int externalAttrs, int flags) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.csize = csize;
+            this.size = size;
+            this.localOffset = localOffset;
+            this.externalAttrs = externalAttrs;
+        }
+    }
+
+    /**
+     * 按zip格式写出条目和中央目录。
+     */
+    static final class ZipWriter {
+
+        private final OutputStream out;
+        private final List<CentralRecord> central = new ArrayList<>();
+        private final ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+        private long offset;
+        //正在写入的流式条目
+        private CentralRecord streamed;
+        private long streamedStart;
+        private boolean streamedZip64;
+
+        ZipWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(Entry e) throws IOException {
+            byte[] name = nameBytes(e.name);
+            long csize = e.compressedSize();
+            int method = e.isDirectory() ? 0 : 8;
+            long dosTime = dosTime(e.time);
+            boolean zip64 = e.size >= ZIP64_MAGIC || csize >= ZIP64_MAGIC;
+
+            header.clear();
+            header.putInt(0x04034b50);
+            header.putShort((short) (zip64 ? 45 : 20));
+            //bit 11：文件名使用UTF-8编码
+            header.putShort((short) 0x0800);
+            header.putShort((short) method);
+            header.putInt((int) dosTime);
+            header.putInt((int) e.crc);
+            header.putInt((int) (zip64 ? ZIP64_MAGIC : csize));
+            header.putInt((int) (zip64 ? ZIP64_MAGIC : e.size));
+            header.putShort((short) name.length);
+            header.putShort((short) (zip64 ? 20 : 0));
+            flushHeader();
+            out.write(name);
+            if (zip64) {
+                header.clear();
+                header.putShort((short) 0x0001);
+                header.putShort((short) 16);
+                header.putLong(e.size);
+                header.putLong(csize);
+                flushHeader();
+            }
+            long localOffset = offset;
+            offset += 30 + name.length + (zip64 ? 20 : 0);
+            if (e.data != null) {
+                e.data.writeTo(out);
+                e.data.discard();
+            }
+            offset += csize;
+
+            central.add(new CentralRecord(name, method, dosTime, e.crc, csize, e.size, localOffset,
+                    e.isDirectory() ? 0x10 : 0, 0x0800));
+        }
+
+        /**
+         * 开始一个事先不知道CRC和压缩后长度的deflate条目，之后用writeData()写入压缩数据，
+         * 最后由endStreamed()写出数据描述符（通用标志位3），不需要先把整个条目缓存起来。
+         *
+         * @param zip64 条目可能超过4GB时为true，本地头和数据描述符使用ZIP64格式
+         */
+        void beginStreamed(String name, long time, boolean zip64) throws IOException {
+            byte[] bytes = nameBytes(name);
+            long dosTime = dosTime(time);
+            header.clear();
+            header.putInt(0x04034b50);
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) 0x0808);
+            header.putShort((short) 8);
+            header.putInt((int) dosTime);
+            header.putInt(0);
+            header.putInt((int) (zip64 ? ZIP64_MAGIC : 0));
+            header.putInt((int) (zip64 ? ZIP64_MAGIC : 0));
+            header.putShort((short) bytes.length);
+            header.putShort((short) (zip64 ? 20 : 0));
+            flushHeader();
+            out.write(bytes);
+            if (zip64) {
+                header.clear();
+                header.putShort((short) 0x0001);
+                header.putShort((short) 16);
+                header.putLong(0);
+                header.putLong(0);
+                flushHeader();
+            }
+            streamed = new CentralRecord(bytes, 8, dosTime, 0, 0, 0, offset, 0, 0x0808);
+            streamedZip64 = zip64;
+            offset += 30 + bytes.length + (zip64 ? 20 : 0);
+            streamedStart = offset;
+        }
+
+        //和ZipOutputStream一样，名字太长时报错，不能截断长度字段写出损坏的zip包
+        private static byte[] nameBytes(String name) throws ZipException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_NAME) {
+                throw new ZipException("Entry name too long: " + bytes.length + " bytes");
+            }
+            return bytes;
+        }
+
+        void writeData(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            offset += len;
+        }
+
+        void endStreamed(long crc, long size) throws IOException {
+            CentralRecord s = streamed;
+            streamed = null;
+            long csize = offset - streamedStart;
+            boolean zip64 = streamedZip64;
+            if (!zip64 && (size >= ZIP64_MAGIC || csize >= ZIP64_MAGIC)) {
+                throw new IOException("Entry too large without ZIP64: " + new String(s.name, StandardCharsets.UTF_8));
+            }
+            header.clear();
+            header.putInt(0x08074b50);
+            header.putInt((int) crc);
+            if (zip64) {
+                header.putLong(csize);
+                header.putLong(size);
+            } else {
+                header.putInt((int) csize);
+                header.putInt((int) size);
+            }
+            flushHeader();
+            offset += zip64 ? 24 : 16;
+            central.add(new CentralRecord(s.name, 8, s.dosTime, crc, csize, size, s.localOffset, 0, 0x0808));
+        }
+
+        void finish() throws IOException {
+            long cdStart = offset;
+            for (CentralRecord c : central) {
+                byte[] name = c.name;
+                long csize = c.csize;
+                long size = c.size;
+                long localOffset = c.localOffset;
+                boolean sizes64 = size >= ZIP64_MAGIC || csize >= ZIP64_MAGIC;
+                boolean offset64 = localOffset >= ZIP64_MAGIC;
+                int extra = (sizes64 ? 16 : 0) + (offset64 ? 8 : 0);
+
+                header.clear();
+                header.putInt(0x02014b50);
+                header.putShort((short) (extra > 0 ? 45 : 20));
+                header.putShort((short) (extra > 0 ? 45 : 20));
+                header.putShort((short) c.flags);
+                header.putShort((short) c.method);
+                header.putInt((int) c.dosTime);
+                header.putInt((int) c.crc);
+                header.putInt((int) (sizes64 ? ZIP64_MAGIC : csize));
+                header.putInt((int) (sizes64 ? ZIP64_MAGIC : size));
+                header.putShort((short) name.length);
+                header.putShort((short) (extra > 0 ? extra + 4 : 0));
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putShort((short) 0);
+                header.putInt(c.externalAttrs);
+                header.putInt((int) (offset64 ? ZIP64_MAGIC : localOffset));
+                flushHeader();
+                out.write(name);
+                offset += 46 + name.length;
+                if (extra > 0) {
+                    header.clear();
+                    header.putShort((short) 0x0001);
+                    header.putShort((short) extra);
+                    if (sizes64) {
+                        header.putLong(size);
+                        header.putLong(csize);
+                    }
+                    if (offset64) {
+                        header.putLong(localOffset);
+                    }
+                    flushHeader();
+                    offset += 4 + extra;
+                }
+            }
+            long cdSize = offset - cdStart;
+            int count = central.size();
+
+            if (count >= 0xFFFF || cdStart >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+                long zip64End = offset;
+                header.clear();
+                header.putInt(0x06064b50);
+                header.putLong(44);
+                header.putShort((short) 45);
+                header.putShort((short) 45);
+                header.putInt(0);
+                header.putInt(0);
+                header.putLong(count);
+                header.putLong(count);
+                header.putLong(cdSize);
+                header.putLong(cdStart);
+                //ZIP64 end of central directory locator
+                header.putInt(0x07064b50);
+                header.putInt(0);
+                header.putLong(zip64End);
+                header.putInt(1);
+                flushHeader();
+                offset += 56 + 20;
+            }
+
+            header.clear();
+            header.putInt(0x06054b50);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) Math.min(count, 0xFFFF));
+            header.putShort((short) Math.min(count, 0xFFFF));
+            header.putInt((int) Math.min(cdSize, ZIP64_MAGIC));
+            header.putInt((int) Math.min(cdStart, ZIP64_MAGIC));
+            header.putShort((short) 0);
+            flushHeader();
+            offset += 22;
+            out.flush();
+        }
+
+        private void flushHeader() throws IOException {
+            out.write(header.array(), 0, header.position());
+        }
+
+        //把毫秒时间转换为MS-DOS格式的日期和时间（高16位是日期，低16位是时间）
+        static long dosTime(long millis) {
+            LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+            if (t.getYear() < 1980) {
+                return (1 << 21) | (1 << 16);
+            }
+            return ((long) (t.getYear() - 1980) << 25)
+                    | ((long) t.getMonthValue() << 21)
+                    | ((long) t.getDayOfMonth() << 16)
+                    | ((long) t.getHour() << 11)
+                    | ((long) t.getMinute() << 5)
+                    | ((long) t.getSecond() >> 1);
+        }
+    }
+
+}
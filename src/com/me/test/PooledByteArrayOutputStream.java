@@ -0,0 +1,130 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 由BufferPool中的块拼接而成的可增长输出流。
+ * ByteArrayOutputStream每次扩容都要把已有内容复制到一个两倍大的新数组里，
+ * 这里写满一块就再借一块，已写入的数据永远不会被复制；用完后close()把所有块还给池。
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+
+    private static final int FIRST_CHUNK = 4 * 1024;
+    private static final int MAX_CHUNK = 1024 * 1024;
+
+    private final BufferPool pool;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int pos;
+    //已经写满的块中的字节数
+    private long filled;
+
+    public PooledByteArrayOutputStream() {
+        this(BufferPool.shared());
+    }
+
+    public PooledByteArrayOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || pos == current.length) {
+            nextChunk();
+        }
+        current[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || pos == current.length) {
+                nextChunk();
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    //直接从输入流读到块中，省掉一次中间缓冲区的复制
+    public long readFrom(InputStream in) throws IOException {
+        return readFrom(in, Long.MAX_VALUE);
+    }
+
+    //最多读取limit个字节，返回实际读取的字节数
+    public long readFrom(InputStream in, long limit) throws IOException {
+        long total = 0;
+        while (total < limit) {
+            if (current == null || pos == current.length) {
+                nextChunk();
+            }
+            int n = in.read(current, pos, (int) Math.min(current.length - pos, limit - total));
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+            total += n;
+        }
+        return total;
+    }
+
+    //块的大小从4KB开始按两倍增长，最大1MB
+    private void nextChunk() {
+        if (current != null) {
+            filled += pos;
+        }
+        int size = current == null ? FIRST_CHUNK : Math.min(current.length * 2, MAX_CHUNK);
+        current = pool.acquire(size);
+        chunks.add(current);
+        pos = 0;
+    }
+
+    public long size() {
+        return filled + pos;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] chunk : chunks) {
+            out.write(chunk, 0, chunk == current ? pos : chunk.length);
+        }
+    }
+
+    public byte[] toByteArray() {
+        long size = size();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("Required array size too large: " + size);
+        }
+        byte[] result = new byte[(int) size];
+        int off = 0;
+        for (byte[] chunk : chunks) {
+            int n = chunk == current ? pos : chunk.length;
+            System.arraycopy(chunk, 0, result, off, n);
+            off += n;
+        }
+        return result;
+    }
+
+    //清空内容，把块还给池，之后还可以继续写入
+    public void reset() {
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        current = null;
+        pos = 0;
+        filled = 0;
+    }
+
+    @Override
+    public void close() {
+        reset();
+    }
+
+}
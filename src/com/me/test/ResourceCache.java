@@ -0,0 +1,355 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * classpath资源的缓存。
+ * getResourceAsStream()每次都要经过类加载器查找，资源在jar包中时还要重新解压；
+ * 这里把资源内容读一次后保存为只读的ByteBuffer（较大的资源放在堆外的直接缓冲区），之后直接返回。
+ * 缓存的总字节数有上限，超过时淘汰最久没有被访问的资源（近似LRU）。
+ * 来自文件系统目录（而不是jar包）的资源会定期检查修改时间，改动后自动重新加载。
+ * 不存在的资源也会缓存一段时间，过期后重新查找；这类记录的个数另有上限。
+ */
+public class ResourceCache {
+
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    //不小于这个大小的资源放在直接缓冲区中，不占用堆
+    static final int DIRECT_THRESHOLD = 64 * 1024;
+    //最多缓存这么多个不存在的资源
+    static final int MAX_MISSING = 1024;
+    //不检查修改时间时，不存在的资源缓存多久后重新查找
+    static final long MISSING_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final ResourceCache SHARED = new ResourceCache(ResourceCache.class.getClassLoader(),
+            DEFAULT_MAX_BYTES, TimeUnit.SECONDS.toNanos(2));
+
+    private final ClassLoader loader;
+    private final long maxBytes;
+    private final long checkIntervalNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    //缓存中不存在的资源的个数
+    private final AtomicInteger missing = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * @param loader             加载资源的类加载器
+     * @param maxBytes           缓存内容的最大总字节数
+     * @param checkIntervalNanos 文件系统中的资源多久检查一次修改时间，0表示不检查
+     */
+    public ResourceCache(ClassLoader loader, long maxBytes, long checkIntervalNanos) {
+        this.loader = loader;
+        this.maxBytes = maxBytes;
+        this.checkIntervalNanos = checkIntervalNanos;
+    }
+
+    public static ResourceCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * 取得资源的只读内容，资源不存在时返回null。
+     * 名字的写法和Class.getResourceAsStream()的绝对路径相同，例如"/default.properties"。
+     */
+    public ByteBuffer get(String name) {
+        String key = name.startsWith("/") ? name.substring(1) : name;
+        Entry e = entries.get(key);
+        long now = System.nanoTime();
+        if (e != null && !isStale(e, now)) {
+            e.lastAccess = now;
+            hits.increment();
+            return e.data == null ? null : e.data.duplicate();
+        }
+        misses.increment();
+        Entry loaded = load(key, now);
+        if (loaded.size() > maxBytes) {
+            //比整个缓存还大的资源不缓存
+            invalidate(key);
+            return loaded.data.duplicate();
+        }
+        Entry old = entries.put(key, loaded);
+        added(loaded);
+        if (old != null) {
+            removed(old);
+            reloads.increment();
+        }
+        if (totalBytes.get() > maxBytes) {
+            evict();
+        }
+        if (missing.get() > MAX_MISSING) {
+            evictMissing();
+        }
+        return loaded.data == null ? null : loaded.data.duplicate();
+    }
+
+    //和Class.getResourceAsStream()一样返回InputStream，资源不存在时返回null
+    public InputStream openStream(String name) {
+        ByteBuffer data = get(name);
+        return data == null ? null : new ByteBufferInputStream(data);
+    }
+
+    //启动时预先加载常用的资源
+    public void preload(String... names) {
+        for (String name : names) {
+            get(name);
+        }
+    }
+
+    //丢弃缓存的资源，下次访问时重新加载
+    public void invalidate(String name) {
+        Entry old = entries.remove(name.startsWith("/") ? name.substring(1) : name);
+        if (old != null) {
+            removed(old);
+        }
+    }
+
+    private void added(Entry e) {
+        totalBytes.addAndGet(e.size());
+        if (e.data == null) {
+            missing.incrementAndGet();
+        }
+    }
+
+    private void removed(Entry e) {
+        totalBytes.addAndGet(-e.size());
+        if (e.data == null) {
+            missing.decrementAndGet();
+        }
+    }
+
+    public void clear() {
+        for (String key : new ArrayList<>(entries.keySet())) {
+            invalidate(key);
+        }
+    }
+
+    //文件系统中的资源每隔checkIntervalNanos检查一次修改时间；不存在的资源到期后重新查找，之后可能被加到classpath中
+    private boolean isStale(Entry e, long now) {
+        if (e.data == null) {
+            return now - e.checkedAt >= (checkIntervalNanos > 0 ? checkIntervalNanos : MISSING_TTL_NANOS);
+        }
+        if (e.file == null || checkIntervalNanos <= 0 || now - e.checkedAt < checkIntervalNanos) {
+            return false;
+        }
+        e.checkedAt = now;
+        try {
+            return Files.getLastModifiedTime(e.file).toMillis() != e.modified;
+        } catch (IOException ex) {
+            //文件被删除了
+            return true;
+        }
+    }
+
+    private Entry load(String key, long now) {
+        long start = System.nanoTime();
+        try {
+            URL url = loader.getResource(key);
+            if (url == null) {
+                //不存在的资源也缓存起来，避免反复查找
+                return new Entry(null, null, 0, now);
+            }
+            Path file = null;
+            long modified = 0;
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    file = Paths.get(url.toURI());
+                    modified = Files.getLastModifiedTime(file).toMillis();
+                } catch (URISyntaxException | NoSuchFileException e) {
+                    file = null;
+                }
+            }
+            byte[] bytes;
+            try (InputStream in = url.openStream()) {
+                bytes = in.readAllBytes();
+            }
+            ByteBuffer data;
+            if (bytes.length >= DIRECT_THRESHOLD) {
+                data = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+            } else {
+                data = ByteBuffer.wrap(bytes);
+            }
+            return new Entry(data.asReadOnlyBuffer(), file, modified, now);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            loadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    //淘汰最久没有访问的资源，直到总大小回到上限的90%以下
+    private synchronized void evict() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> list = new ArrayList<>(entries.entrySet());
+        list.sort(Comparator.comparingLong(en -> en.getValue().lastAccess));
+        long target = maxBytes / 10 * 9;
+        for (Map.Entry<String, Entry> en : list) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            if (entries.remove(en.getKey(), en.getValue())) {
+                removed(en.getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    //淘汰最久没有访问的不存在的资源，直到个数回到上限的90%以下
+    private synchronized void evictMissing() {
+        if (missing.get() <= MAX_MISSING) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> list = new ArrayList<>();
+        for (Map.Entry<String, Entry> en : entries.entrySet()) {
+            if (en.getValue().data == null) {
+                list.add(en);
+            }
+        }
+        list.sort(Comparator.comparingLong(en -> en.getValue().lastAccess));
+        int target = MAX_MISSING / 10 * 9;
+        for (Map.Entry<String, Entry> en : list) {
+            if (missing.get() <= target) {
+                break;
+            }
+            if (entries.remove(en.getKey(), en.getValue())) {
+                removed(en.getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    //命中率，还没有访问时为0
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getBytes() {
+        return totalBytes.get();
+    }
+
+    public int getCount() {
+        return entries.size();
+    }
+
+    //加载资源花费的总时间
+    public long getLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResourceCache[%d resources, %d bytes, hits=%d, misses=%d, hitRatio=%.2f%%, "
+                        + "reloads=%d, evictions=%d]", getCount(), getBytes(), getHits(), getMisses(),
+                getHitRatio() * 100, getReloads(), getEvictions());
+    }
+
+    /**
+     * 缓存的一个资源，data为null表示资源不存在。
+     */
+    private static final class Entry {
+
+        final ByteBuffer data;
+        //资源在文件系统中时的路径和修改时间，用于热加载
+        final Path file;
+        final long modified;
+        volatile long lastAccess;
+        volatile long checkedAt;
+
+        Entry(ByteBuffer data, Path file, long modified, long now) {
+            this.data = data;
+            this.file = file;
+            this.modified = modified;
+            this.lastAccess = now;
+            this.checkedAt = now;
+        }
+
+        long size() {
+            return data == null ? 0 : data.capacity();
+        }
+    }
+
+    /**
+     * 读取ByteBuffer的InputStream，不复制数据。
+     */
+    static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
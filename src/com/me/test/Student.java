@@ -0,0 +1,9 @@
+package com.me.test;
+
+import java.io.Serializable;
+
+import com.me.test.BinaryCodec.Tag;
+
+//BinaryCodec要求每个字段都有固定的编号，编号一旦使用就不要再改动或复用
+record Student(@Tag(1) String name, @Tag(2) int age, @Tag(3) double score) implements Serializable {
+}
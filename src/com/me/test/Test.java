@@ -6,8 +6,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.stream.Stream;
+import java.util.zip.Checksum;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
@@ -75,6 +78,16 @@ public class Test {
             }
         });
         printFiles(fs2);
+        //要反复按扩展名或路径前缀查找时，先建一个持久化的索引，之后重新打开只需要映射索引文件
+        /*
+        try (FileIndex index = FileIndex.openOrBuild(Paths.get("C:\\Windows"), Paths.get("windows.idx"))) {
+            index.extension("exe").forEach(i -> TextSink.stdout().println(index.resolve(i)));
+            index.prefix("System32/drivers/").forEach(i -> TextSink.stdout().println(index.path(i)));
+            TextSink.stdout().flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+         */
 
         //Java标准库还提供了一个Path对象，它位于java.nio.file包。Path对象和File对象类似，但操作更加简单：
         //如果需要对目录进行复杂的拼接、遍历等操作，使用Path对象更方便
@@ -104,6 +117,11 @@ public class Test {
         listFiles();
         System.out.println("---------------------");
         listFiles("D:\\code\\java\\Test");
+        //不再列目录了，关闭缓存的扫描器，释放它们的WatchService
+        TreeScanner.closeAll();
+        System.out.println("---------------------");
+        //目录很大时，用多个线程并行遍历，结果通过有界队列以Stream的形式边读边输出
+        walkFiles(".");
         System.out.println("---------------------");
 
 
@@ -165,6 +183,14 @@ public class Test {
             e.printStackTrace();
         }
 
+        //大文件不必一块一块地阻塞读取：MappedFile把文件映射到内存，按换行切分成分片，所有核并行扫描
+        try (MappedFile file = MappedFile.open(Paths.get("io.iml"))) {
+            long lines = file.reduce((byte) '\n', 0L, s -> s.count((byte) '\n'), Long::sum);
+            System.out.println("io.iml: " + file.size() + " bytes, " + lines + " lines");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         //ByteArrayInputStream可以在内存中模拟一个InputStream
         byte[] data = {72, 101, 108, 108, 111, 33};
         StringBuilder sb = new StringBuilder();
@@ -211,6 +237,24 @@ public class Test {
         //利用InputStream和OutputStream，编写一个复制文件的程序
         copyFile("src/source.txt", "srcc/target.txt");
 
+        //复制时顺便计算CRC32C，摘要写到srcc/target.txt.crc32c，之后可以不读源文件就校验目标文件
+        //copyFile("src/source.txt", "srcc/target.txt", true);
+
+        //复制整个目录树：只遍历一次，文件并发复制
+        //copyTree("test", "test_copy");
+
+        //增量同步：目标文件已经存在时只写入内容有变化的块
+        //syncFile("src/source.txt", "srcc/target.txt");
+
+        //异步IO：AsynchronousFileChannel读写，等待IO时不占用线程，结果通过CompletableFuture返回
+        /*
+        try (AsyncFileEngine engine = new AsyncFileEngine(256)) {
+            engine.copy(Paths.get("src/source.txt"), Paths.get("srcc/async.txt"))
+                    .thenAccept(System.out::println)
+                    .join();
+        }
+         */
+
         //通过一个“基础”组件再叠加各种“附加”功能组件的模式，称之为Filter模式（或者装饰器模式：Decorator）
         //JDK首先将InputStream分为两大类：
         //一类是直接提供数据的基础InputStream,一类是提供额外附加功能的InputStream
@@ -223,6 +267,17 @@ public class Test {
         InputStream gzip = new GZIPInputStream(buffered);
          */
 
+        //GZIPInputStream/GZIPOutputStream只用一个CPU核心，
+        //ParallelGZIPOutputStream把数据切成块并行压缩成多成员gzip，ParallelGZIPInputStream则并行解压各个成员
+        /*
+        try (OutputStream gz = new ParallelGZIPOutputStream(new FileOutputStream("test.gz"))) {
+            gz.write(...);
+        }
+        try (InputStream gz = new ParallelGZIPInputStream(new BufferedInputStream(new FileInputStream("test.gz")))) {
+            gz.read(...);
+        }
+         */
+
         //可以自己编写FilterInputStream，以便可以把自己的FilterInputStream“叠加”到任何一个InputStream中
         byte[] datas = new byte[0];
         try {
@@ -240,6 +295,8 @@ public class Test {
                 System.out.println((char) n);
             }
             System.out.println("Total read " + in.getCount() + " bytes");
+            //吞吐量和每次read()的延迟分布，register()之后也可以在jconsole中查看
+            System.out.println(in.getMetrics());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -265,6 +322,24 @@ public class Test {
         }
          */
 
+        //只需要处理条目内容、不需要解压到磁盘时，用ZipPipeline：调用线程顺序解压，每个条目的内容按块交给线程池处理，
+        //处理当前条目的同时已经在解压后面的条目
+        /*
+        try (ZipPipeline pipeline = new ZipPipeline()) {
+            List<Long> sizes = pipeline.process(Paths.get("test.zip"), (entry, data) -> {
+                long size = 0;
+                ByteBuffer chunk;
+                while ((chunk = data.nextChunk()) != null) {
+                    size += chunk.remaining();
+                }
+                return size;
+            });
+            System.out.println(sizes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+         */
+
         //ZipOutputStream是一种FilterOutputStream，它可以直接写入内容到zip包。
         // 我们要先创建一个ZipOutputStream，通常是包装一个FileOutputStream，
         // 然后，每写入一个文件前，先调用putNextEntry()，然后用write()写入byte[]数据，
@@ -295,6 +370,30 @@ public class Test {
         }
          */
 
+        //多线程压缩：每个文件在线程池中各自压缩，再按顺序写入zip包
+        /*
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File("test.zip")));
+             ParallelZipper zipper = new ParallelZipper()) {
+            zipper.zip(Paths.get("test"), out);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+         */
+
+        //夜间归档：低优先级并限速50MB/s，前台的复制和解压排队时优先放行
+        /*
+        IoScheduler.Job nightly = IoScheduler.shared().job("nightly-archive", IoScheduler.Priority.BULK, 50L * 1024 * 1024);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File("test.zip")));
+             ParallelZipper zipper = new ParallelZipper(4, java.util.zip.Deflater.DEFAULT_COMPRESSION, nightly)) {
+            zipper.zip(Paths.get("test"), out);
+            System.out.println(nightly);
+            System.out.println(IoScheduler.shared());
+            IoScheduler.shared().getWaitMetrics(IoScheduler.Priority.BULK).register("bulk-wait");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+         */
+
         //解压
         /*
         try (ZipInputStream in = new ZipInputStream(new FileInputStream(new File("test.zip")))) {
@@ -304,6 +403,49 @@ public class Test {
         }
          */
 
+        //端到端校验：压缩时用同一批缓冲区计算CRC32C写入test.zip.crc32c，
+        //之后并行校验zip包，或者解压时边写边校验，都不需要额外再读一遍数据
+        /*
+        try {
+            ChecksumManifest manifest = new ChecksumManifest();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File("test.zip")));
+                 ParallelZipper zipper = new ParallelZipper()) {
+                zipper.zip(Paths.get("test"), out, manifest);
+            }
+            manifest.write(ChecksumManifest.sidecar(Paths.get("test.zip")));
+
+            //也可以在命令行执行：java com.me.test.ChecksumManifest test.zip
+            System.out.println(manifest.verifyZip(Paths.get("test.zip"), 4));
+
+            try (ZipInputStream in = new ZipInputStream(new FileInputStream(new File("test.zip")))) {
+                unziper(in, "test1", ChecksumManifest.read(ChecksumManifest.sidecar(Paths.get("test.zip"))));
+            }
+            System.out.println(manifest.verifyTree(Paths.get("test1"), 4));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+         */
+
+        //随机访问解压：先读中央目录，只映射并解压需要的条目，不必从头读完整个zip包
+        /*
+        try (ZipExtractor zip = new ZipExtractor(Paths.get("test.zip"))) {
+            zip.extract("1/2.txt", Paths.get("test1"));    //只解压一个条目
+            zip.extractAll(Paths.get("test2"), 4);          //并行解压全部条目
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+         */
+
+        //zip包和tar.gz互相转换，数据直接从一种格式流向另一种，不先解压到磁盘
+        /*
+        try (ArchiveTranscoder transcoder = new ArchiveTranscoder()) {
+            System.out.println(transcoder.zipToTarGz(Paths.get("test.zip"), Paths.get("test.tar.gz")));
+            System.out.println(transcoder.tarGzToZip(Paths.get("test.tar.gz"), Paths.get("test2.zip")));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+         */
+
         //把资源存储在classpath中可以避免文件路径依赖.
         //从classpath读取文件就可以避免不同环境下文件路径不一致的问题：
         // 如果我们把default.properties文件放到classpath中，就不用关心它的实际存放路径
@@ -312,17 +454,37 @@ public class Test {
         //getResourceAsStream()需要特别注意的一点是，如果资源文件不存在，它将返回null
         try (InputStream input = Test.class.getResourceAsStream("/default.properties")) {
             if (input != null) {
-                // TODO:
+                Properties props = new Properties();
+                props.load(input);
+                System.out.println(props);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
+        //同一个资源需要反复读取时，用ResourceCache缓存资源的内容，只有第一次经过类加载器
+        ResourceCache.shared().preload("/default.properties");
+        try (InputStream input = ResourceCache.shared().openStream("/default.properties")) {
+            if (input != null) {
+                Properties props = new Properties();
+                props.load(input);
+            }
+            System.out.println(ResourceCache.shared());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         //如果我们把默认的配置放到jar包中，再从外部文件系统读取一个可选的配置文件，
         // 就可以做到既有默认的配置文件，又可以让用户自己修改配置：
         //Properties props = new Properties();
         //props.load(inputStreamFromClassPath("/default.properties"));
         //props.load(inputStreamFromFile("./conf.properties"));
+        //Config把两层合并成不可变的快照，conf.properties修改后自动重新加载，getInt()等只解析一次
+        try (Config config = Config.load("/default.properties", Paths.get("conf.properties"))) {
+            System.out.println(config.snapshot());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
 
         //序列化是指把一个Java对象变成二进制内容，本质上就是一个byte[]数组
@@ -366,10 +528,51 @@ public class Test {
             e.printStackTrace();
         }
 
+        //ObjectOutputStream写出的数据包含类名、字段描述等大量元信息，体积大、速度慢，反序列化还有安全问题。
+        //BinaryCodec按@Tag固定的字段编号写出紧凑的二进制数据，访问字段的MethodHandle按类缓存，增删字段也能兼容旧数据：
+        Student student = new Student("Xiao Ming", 12, 99.5);
+        ByteArrayOutputStream javaBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(javaBytes)) {
+            output.writeObject(student);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        byte[] compact = BinaryCodec.of(Student.class).encode(student);
+        System.out.println("ObjectOutputStream: " + javaBytes.size() + " bytes, BinaryCodec: " + compact.length + " bytes");
+        try {
+            System.out.println(BinaryCodec.of(Student.class).decode(compact));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         //Java的序列化机制仅适用于Java，如果需要与其它语言交换数据，必须使用通用的序列化方法，例如JSON。
         //实际上，Java本身提供的基于对象的序列化和反序列化机制既存在安全性问题，也存在兼容性问题。
         //更好的序列化方法是通过JSON这样的通用数据结构来实现，只输出基本类型（包括String）的内容，
         // 而不存储任何与代码相关的信息。
+        //JsonWriter/JsonReader直接在OutputStream/InputStream上流式读写JSON，不构建中间的树：
+        ByteArrayOutputStream jsonBuffer = new ByteArrayOutputStream();
+        try (JsonWriter json = new JsonWriter(jsonBuffer)) {
+            json.beginArray();
+            json.value(12345);
+            json.value("Hello");
+            json.writeValue(Double.valueOf(123.456));
+            json.writeValue(student);
+            json.endArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println(new String(jsonBuffer.toByteArray(), StandardCharsets.UTF_8));
+        try (JsonReader json = new JsonReader(new ByteArrayInputStream(jsonBuffer.toByteArray()))) {
+            json.beginArray();
+            int n = json.nextInt();
+            String s = json.nextString();
+            double d = json.nextDouble();
+            Student st = json.readValue(Student.class);
+            json.endArray();
+            System.out.println(n + "," + s + "," + d + "," + st);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
 
         //java.io.Reader是所有字符输入流的超类，它最主要的方法是：
@@ -390,6 +593,14 @@ public class Test {
             e.printStackTrace();
         }
 
+        //逐个字符read()时每个字符都有一次方法调用和加锁，读大文件时应当批量解码。
+        //FastTextReader从大块的直接缓冲区批量解码，还可以逐行遍历而不为每一行创建String：
+        try (FastTextReader reader = FastTextReader.open(Paths.get("src/source.txt"), StandardCharsets.UTF_8)) {
+            reader.forEachLine(line -> System.out.println(line.length() + ": " + line));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
         //CharArrayReader可以在内存中模拟一个Reader，它的作用实际上是把一个char[]数组变成一个Reader，这和ByteArrayInputStream非常类似：
         //StringReader可以直接把String作为数据源，它和CharArrayReader几乎一样
 
@@ -437,6 +648,17 @@ public class Test {
             e.printStackTrace();
         }
 
+        //上面每次write()都是一次系统调用。日志这类多线程追加写入的场景用GroupCommitWriter：
+        //写入只是放进无锁队列，由一个刷写线程把排队的内容合并成一次写入，flush()等待全部落盘
+        try (GroupCommitWriter writer = GroupCommitWriter.open(Paths.get("readme.log"), true)) {
+            writer.write('H');
+            writer.write("Hello".toCharArray());
+            writer.append("Hello\n").join();
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         //rintStream最终输出的总是byte数据，
         // 而PrintWriter则是扩展了Writer接口，
         // 它的print()/println()方法最终输出的是char数据。
@@ -452,27 +674,62 @@ public class Test {
             pw.println(true);
         }
         System.out.println(buffers.toString());
+
+        //输出量很大时用TextSink：数字直接写成UTF-8字节，不生成中间的String，每个线程攒够一批再写出
+        /*
+        try (TextSink out = TextSink.open(Paths.get("report.txt"))) {
+            out.print("Hello ").print(12345).print(' ').print(true).print(' ').print(3.14159, 2).println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+         */
     }
 
     //解压缩文件
     static void unziper(ZipInputStream in, String dir) throws Exception {
+        unziper(in, dir, null);
+    }
+
+    //解压缩文件，manifest不为null时边写边计算CRC32C，与清单不符就抛出ZipException
+    static void unziper(ZipInputStream in, String dir, ChecksumManifest manifest) throws Exception {
 
         ZipEntry entry = null;
         //遍历zipentry
         while ((entry = in.getNextEntry()) != null) {
-            //由entry构造文件
-            File ft = new File(dir + "/" + entry.getName());
+            //由entry构造文件，拒绝用../跳出解压目录的条目（zip slip）
+            File ft = new File(dir, entry.getName());
+            if (!ft.getCanonicalPath().startsWith(new File(dir).getCanonicalPath() + File.separator)) {
+                throw new ZipException("Entry is outside of the target dir: " + entry.getName());
+            }
 
-            //是文件夹，且不存在，则创建
-            if (entry.isDirectory() && !ft.exists()) {
+            //是文件夹，不存在则创建（已经存在时不能当作文件写出）
+            if (entry.isDirectory()) {
                 ft.mkdirs();
             } else {    //是文件，则输出文件
 
-                try (OutputStream out = new FileOutputStream(ft)) {
-                    byte[] buffer = new byte[1024];
+                //缓冲区从BufferPool借用，用完归还，每个条目不再new一个byte[]
+                byte[] buffer = BufferPool.shared().acquire(64 * 1024);
+                //写文件经过共享的I/O调度器
+                Checksum crc = manifest == null ? null : ChecksumManifest.newChecksum();
+                long size = 0;
+                try (OutputStream out = IoScheduler.shared().defaultJob().wrap(new FileOutputStream(ft))) {
                     int len = 0;
                     while ((len = in.read(buffer)) != -1) {
                         out.write(buffer, 0, len);
+                        if (crc != null) {
+                            crc.update(buffer, 0, len);
+                        }
+                        size += len;
+                    }
+                } finally {
+                    BufferPool.shared().release(buffer);
+                }
+                if (manifest != null) {
+                    ChecksumManifest.Entry expected = manifest.get(entry.getName());
+                    if (expected == null || expected.getSize() != size || expected.getCrc() != crc.getValue()) {
+                        //损坏的文件不能留在解压目录里
+                        ft.delete();
+                        throw new ZipException("Checksum mismatch: " + entry.getName());
                     }
                 }
             }
@@ -482,6 +739,11 @@ public class Test {
 
     //压缩文件（夹）
     static void ziper(File f, ZipOutputStream out, String base) throws Exception {
+        ziper(f, out, base, null);
+    }
+
+    //压缩文件（夹），manifest不为null时顺便计算每个文件的CRC32C，名字与条目名相同
+    static void ziper(File f, ZipOutputStream out, String base, ChecksumManifest manifest) throws Exception {
 
         for (File ft : f.listFiles()) {
 
@@ -490,11 +752,23 @@ public class Test {
                 //添加 文件条目，需要使用带相对路径的文件名
                 out.putNextEntry(new ZipEntry(base + ft.getName()));
 
-                InputStream in = new FileInputStream(ft);
-                byte[] buffer = new byte[1024];
-                int len = 0;
-                while ((len = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, len);
+                byte[] buffer = BufferPool.shared().acquire(64 * 1024);
+                Checksum crc = manifest == null ? null : ChecksumManifest.newChecksum();
+                long size = 0;
+                try (InputStream in = IoScheduler.shared().defaultJob().wrap(new FileInputStream(ft))) {
+                    int len = 0;
+                    while ((len = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, len);
+                        if (crc != null) {
+                            crc.update(buffer, 0, len);
+                        }
+                        size += len;
+                    }
+                } finally {
+                    BufferPool.shared().release(buffer);
+                }
+                if (manifest != null) {
+                    manifest.put(base + ft.getName(), size, crc.getValue());
                 }
                 //关闭一个文件条目
                 out.closeEntry();
@@ -505,7 +779,7 @@ public class Test {
                 //创建 文件夹条目，需要在相对路径里加 /
                 out.putNextEntry(new ZipEntry(base + ft.getName() + "/"));
                 //递归文件夹
-                ziper(ft, out, base + ft.getName() + "/");
+                ziper(ft, out, base + ft.getName() + "/", manifest);
                 //该文件夹遍历完才能关闭该文件夹条目
                 out.closeEntry();
             }
@@ -515,6 +789,11 @@ public class Test {
 
     //利用InputStream和OutputStream，编写一个复制文件的程序
     static void copyFile(String src, String target) {
+        copyFile(src, target, false);
+    }
+
+    //checksum为true时复制的同时计算CRC32C，写到目标文件旁边的.crc32c清单中
+    static void copyFile(String src, String target, boolean checksum) {
         File fs = new File(src);
         File fw = new File(target);
         // 是否为文件
@@ -525,15 +804,17 @@ public class Test {
                 parent.mkdirs();
             }
 
-            try (InputStream in = new FileInputStream(fs); OutputStream out = new FileOutputStream(fw)) {
-                byte[] buffer = new byte[1024];
-                int len = 0;
-                //读写
-                while ((len = in.read(buffer)) != -1) {
-                    //将从偏移量为 off的指定字节数组中的 len字节写入此文件输出流。
-                    out.write(buffer, 0, len);
+            //两端都是普通文件，交给CopyEngine走零拷贝（FileChannel.transferTo）
+            try {
+                Checksum crc = checksum ? ChecksumManifest.newChecksum() : null;
+                CopyEngine.CopyResult result = CopyEngine.copy(fs.toPath(), fw.toPath(),
+                        IoScheduler.shared().defaultJob(), crc);
+                System.out.println(result);
+                if (checksum) {
+                    ChecksumManifest manifest = new ChecksumManifest();
+                    manifest.put(fw.getName(), result.getBytes(), crc.getValue());
+                    manifest.write(ChecksumManifest.sidecar(fw.toPath()));
                 }
-
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -543,6 +824,34 @@ public class Test {
         }
     }
 
+    //增量同步文件，块的摘要缓存在.chunksync中，下次同步未改动的文件不必重新读取
+    static void syncFile(String src, String target) {
+        try {
+            ChunkSync sync = new ChunkSync(Paths.get(".chunksync"));
+            ChunkSync.Result result = sync.sync(Paths.get(src), Paths.get(target));
+            sync.save();
+            System.out.println(result);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //并行复制整个目录（树）
+    static void copyTree(String src, String target) {
+        File fs = new File(src);
+        // 是否为目录
+        if (fs.isDirectory()) {
+            try (TreeCopier copier = new TreeCopier()) {
+                TreeCopier.Result result = copier.copyTree(fs.toPath(), new File(target).toPath());
+                System.out.println(result);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            System.out.println("Not a directory!");
+        }
+    }
+
     static void listFiles() {
         File f = new File(".");
         System.out.println(f.getName() + "/");
@@ -555,34 +864,39 @@ public class Test {
         list(f, 1);
     }
 
+    //遍历时一次拿到文件属性，结果缓存在TreeScanner的快照里，之后只根据WatchService的事件增量更新
     static void list(File f, int level) {
+        try {
+            TreeScanner.of(f.toPath()).print(TextSink.stdout(), level);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            TextSink.stdout().flush();
+        }
+    }
 
-        for (File ft : f.listFiles()) {
-
-            StringBuilder pre = new StringBuilder();
-            for (int i = 0; i < level; i++) {
-                pre.append("  ");
-            }
-
-            if (ft.isFile()) {
-                System.out.println(pre + ft.getName());
-            }
-
-            if (ft.isDirectory()) {
-                System.out.println(pre + ft.getName() + "/");
-                list(ft, level + 1);
-            }
+    //并行遍历目录树，内存占用和目录大小无关，输出顺序不固定
+    static void walkFiles(String dir) {
+        try (Stream<Path> paths = ParallelWalker.walk(Paths.get(dir))) {
+            paths.forEach(TextSink.stdout()::println);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+        } finally {
+            TextSink.stdout().flush();
         }
     }
 
     static void printFiles(File[] files) {
-        System.out.println("==========");
+        //大量的行先攒在TextSink的缓冲区里，整批写到标准输出
+        TextSink out = TextSink.stdout();
+        out.println("==========");
         if (files != null) {
             for (File f : files) {
-                System.out.println(f);
+                out.println(f.getPath());
             }
         }
-        System.out.println("==========");
+        out.println("==========");
+        out.flush();
     }
 
 }
@@ -593,53 +907,3 @@ public class Test {
 class Person implements Serializable {
     private static final long serialVersionUID = 2709425275741743919L;
 }
-
-class CountInputStream extends FilterInputStream {
-
-    private int count = 0;
-
-    @Override
-    public int read() throws IOException {
-        int n = in.read();
-        if (n != -1) {
-            this.count++;
-        }
-        return n;
-    }
-
-    @Override
-    public int read(byte[] b) throws IOException {
-        int n = in.read(b);
-        if (n != -1) {
-            this.count += n;
-        }
-        return n;
-    }
-
-    @Override
-    public int read(byte[] b, int off, int len) throws IOException {
-        int n = in.read(b, off, len);
-        if (n != -1) {
-            this.count += n;
-        }
-        return n;
-    }
-
-    /**
-     * Creates a <code>FilterInputStream</code>
-     * by assigning the  argument <code>in</code>
-     * to the field <code>this.in</code> so as
-     * to remember it for later use.
-     *
-     * @param in the underlying input stream, or <code>null</code> if
-     *           this instance is to be created without an underlying stream.
-     */
-    protected CountInputStream(InputStream in) {    //传入需要包装的InputStream
-        super(in);
-    }
-
-    public int getCount() {
-        return count;
-    }
-
-}
\ No newline at end of file
@@ -0,0 +1,448 @@
+package com.me.test;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 大量格式化文本输出用的PrintStream/PrintWriter替代品，输出UTF-8。
+ * PrintWriter每次print都要经过同步的Writer（套在StringWriter上时还有StringBuffer的锁），
+ * print(int)等方法先用String.valueOf()生成字符串再编码；
+ * 这里整数、布尔值直接按字节写进可复用的缓冲区，字符串逐个字符编码成UTF-8，中间不产生String。
+ * 每个线程有自己的缓冲区，写入时不加锁；攒够一批（默认64KB）后在行尾整批写到通道，
+ * 同一行的内容总是一起写出，多个线程的输出不会在行内交错。
+ * 和PrintStream一样不抛出IOException，出错后checkError()返回true。
+ */
+public class TextSink implements Appendable, Flushable, Closeable {
+
+    static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final TextSink STDOUT = new TextSink(new FileOutputStream(FileDescriptor.out).getChannel(),
+            DEFAULT_BATCH_SIZE, false);
+
+    static {
+        //标准输出从不关闭，退出时写出各个线程（包括已经结束的线程）还没有flush()的内容
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                STDOUT.close();
+            } catch (IOException e) {
+                //不关闭标准输出，写出时的错误只记录在checkError()中
+            }
+        }, "text-sink-stdout"));
+    }
+
+    private final WritableByteChannel channel;
+    private final int batchSize;
+    private final boolean closeChannel;
+    private final ThreadLocal<Buffer> local = ThreadLocal.withInitial(this::newBuffer);
+    //还有没写出内容的线程缓冲区，close()时写出剩下的内容。
+    //缓冲区写空后就从这里移除，线程结束后只剩ThreadLocal的引用，线程频繁创建、销毁时也不会越积越多
+    private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+    private volatile boolean error;
+    private volatile boolean closed;
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    //标准输出，和System.out混用时要先flush()，关闭时不关闭标准输出
+    public static TextSink stdout() {
+        return STDOUT;
+    }
+
+    //覆盖写入文件，文件不存在时创建
+    public static TextSink open(Path file) throws IOException {
+        return new TextSink(FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * @param channel      输出的通道
+     * @param batchSize    每个线程攒够多少字节后写出一次
+     * @param closeChannel close()时是否关闭通道
+     */
+    public TextSink(WritableByteChannel channel, int batchSize, boolean closeChannel) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.closeChannel = closeChannel;
+    }
+
+    private Buffer newBuffer() {
+        return new Buffer(batchSize + 1024);
+    }
+
+    //当前线程的缓冲区，要写入内容时登记到buffers中
+    private Buffer buffer() {
+        Buffer b = local.get();
+        if (!b.registered) {
+            b.registered = true;
+            buffers.add(b);
+        }
+        return b;
+    }
+
+    //缓冲区写空后不再需要close()处理
+    private void unregister(Buffer b) {
+        if (b.count == 0 && b.registered) {
+            b.registered = false;
+            buffers.remove(b);
+        }
+    }
+
+    public TextSink print(int v) {
+        return print((long) v);
+    }
+
+    public TextSink print(long v) {
+        Buffer b = buffer();
+        if (v == Long.MIN_VALUE) {
+            b.put(MIN_LONG);
+            return this;
+        }
+        b.ensure(20);
+        if (v < 0) {
+            b.data[b.count++] = '-';
+            v = -v;
+        }
+        b.count = putDigits(b.data, b.count, v);
+        return this;
+    }
+
+    //按十进制写出非负数，返回写完后的位置
+    private static int putDigits(byte[] data, int pos, long v) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && v >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            data[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+
+    public TextSink print(boolean v) {
+        buffer().put(v ? TRUE : FALSE);
+        return this;
+    }
+
+    //和PrintStream.print(double)的输出相同，整数值不生成字符串
+    public TextSink print(double v) {
+        if (v == (long) v && Math.abs(v) < 1e7 && (v != 0 || 1 / v > 0)) {
+            print((long) v);
+            Buffer b = buffer();
+            b.ensure(2);
+            b.data[b.count++] = '.';
+            b.data[b.count++] = '0';
+            return this;
+        }
+        return print(Double.toString(v));
+    }
+
+    /**
+     * 按定点格式写出，保留decimals位小数（四舍五入），和String.format("%.nf")类似但不产生字符串。
+     * 整数部分超出long范围的值、NaN和无穷大按print(double)输出。
+     */
+    public TextSink print(double v, int decimals) {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("decimals must be in 0.." + (POWERS_OF_TEN.length - 1));
+        }
+        double abs = Math.abs(v);
+        if (Double.isNaN(v) || abs >= 0x1p63) {
+            return print(v);
+        }
+        //整数部分和小数部分分开处理，数值很大时乘以10^decimals也不会丢失精度
+        long ip = (long) abs;
+        long scale = POWERS_OF_TEN[decimals];
+        long frac = Math.round((abs - ip) * scale);
+        if (frac >= scale) {
+            ip++;
+            frac -= scale;
+        }
+        Buffer b = buffer();
+        b.ensure(21 + decimals);
+        if (v < 0 && (ip != 0 || frac != 0)) {
+            b.data[b.count++] = '-';
+        }
+        b.count = putDigits(b.data, b.count, ip);
+        if (decimals > 0) {
+            b.data[b.count++] = '.';
+            //小数部分前面补0
+            for (int i = decimals - 1; i > 0 && frac < POWERS_OF_TEN[i]; i--) {
+                b.data[b.count++] = '0';
+            }
+            b.count = putDigits(b.data, b.count, frac);
+        }
+        return this;
+    }
+
+    public TextSink print(char c) {
+        buffer().putChar(c);
+        return this;
+    }
+
+    public TextSink print(CharSequence s) {
+        Buffer b = buffer();
+        if (s == null) {
+            b.put(NULL);
+        } else {
+            b.putChars(s, 0, s.length());
+        }
+        return this;
+    }
+
+    public TextSink print(Object o) {
+        return print(o == null ? null : o.toString());
+    }
+
+    //重复写出n个字符，用于缩进和对齐
+    public TextSink repeat(char c, int n) {
+        Buffer b = buffer();
+        if (c < 0x80) {
+            b.ensure(n);
+            Arrays.fill(b.data, b.count, b.count + n, (byte) c);
+            b.count += n;
+        } else {
+            for (int i = 0; i < n; i++) {
+                b.putChar(c);
+            }
+        }
+        return this;
+    }
+
+    //结束一行，缓冲区攒够一批时写出
+    public TextSink println() {
+        Buffer b = buffer();
+        b.ensure(1);
+        b.data[b.count++] = '\n';
+        b.lineEnd = b.count;
+        if (b.count >= batchSize) {
+            write(b, b.count);
+        }
+        return this;
+    }
+
+    public TextSink println(int v) {
+        return print(v).println();
+    }
+
+    public TextSink println(long v) {
+        return print(v).println();
+    }
+
+    public TextSink println(boolean v) {
+        return print(v).println();
+    }
+
+    public TextSink println(double v) {
+        return print(v).println();
+    }
+
+    public TextSink println(char c) {
+        return print(c).println();
+    }
+
+    public TextSink println(CharSequence s) {
+        return print(s).println();
+    }
+
+    public TextSink println(Object o) {
+        return print(o).println();
+    }
+
+    @Override
+    public TextSink append(CharSequence s) {
+        return print(s);
+    }
+
+    @Override
+    public TextSink append(CharSequence s, int start, int end) {
+        if (s == null) {
+            return print((CharSequence) null);
+        }
+        buffer().putChars(s, start, end);
+        return this;
+    }
+
+    @Override
+    public TextSink append(char c) {
+        return print(c);
+    }
+
+    //把当前线程缓冲区中的内容全部写出
+    @Override
+    public void flush() {
+        Buffer b = local.get();
+        if (b.count > 0) {
+            write(b, b.count);
+        }
+    }
+
+    //把缓冲区的前len个字节写到通道，剩下的（还没结束的一行）移到开头
+    private void write(Buffer b, int len) {
+        if (closed) {
+            error = true;
+            b.count = 0;
+            b.lineEnd = 0;
+            unregister(b);
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(b.data, 0, len);
+        try {
+            //一批数据一次写完，不和其他线程的批次交错
+            synchronized (channel) {
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+            }
+            bytes.add(len);
+            writes.increment();
+        } catch (IOException e) {
+            error = true;
+        }
+        System.arraycopy(b.data, len, b.data, 0, b.count - len);
+        b.count -= len;
+        b.lineEnd = Math.max(0, b.lineEnd - len);
+        unregister(b);
+    }
+
+    //和PrintStream.checkError()一样，先写出当前线程的缓冲区，再返回是否出过错
+    public boolean checkError() {
+        flush();
+        return error;
+    }
+
+    //已经写到通道的字节数
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    //写通道的次数
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * 写出所有线程缓冲区中剩下的内容。
+     * 其他线程的缓冲区没有加锁，调用前那些线程应该已经结束写入（例如已经join()或者线程池已经awaitTermination()）。
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        for (Buffer b : buffers) {
+            if (b.count > 0) {
+                write(b, b.count);
+            }
+        }
+        if (closeChannel) {
+            closed = true;
+            buffers.clear();
+            channel.close();
+        }
+    }
+
+    /**
+     * 一个线程的输出缓冲区。
+     */
+    private final class Buffer {
+
+        byte[] data;
+        int count;
+        //最后一个完整行的结尾
+        int lineEnd;
+        //是否在buffers中，只由所属线程（以及close()）修改
+        boolean registered;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void ensure(int n) {
+            if (count + n <= data.length) {
+                return;
+            }
+            //先写出已经完整的行，还不够时说明一行太长，只能扩大缓冲区
+            if (lineEnd > 0) {
+                write(this, lineEnd);
+            }
+            if (count + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, count + n));
+            }
+        }
+
+        void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, data, count, b.length);
+            count += b.length;
+        }
+
+        void putChar(char c) {
+            ensure(3);
+            if (c < 0x80) {
+                data[count++] = (byte) c;
+            } else if (c < 0x800) {
+                data[count++] = (byte) (0xC0 | c >> 6);
+                data[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                //单独的代理字符不能编码，和String.getBytes()一样替换为?
+                data[count++] = '?';
+            } else {
+                data[count++] = (byte) (0xE0 | c >> 12);
+                data[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                data[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+
+        void putChars(CharSequence s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    //ASCII是最常见的情况
+                    if (count == data.length) {
+                        ensure(end - i);
+                    }
+                    data[count++] = (byte) c;
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    ensure(4);
+                    data[count++] = (byte) (0xF0 | cp >> 18);
+                    data[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    data[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    data[count++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    putChar(c);
+                }
+            }
+        }
+    }
+
+}
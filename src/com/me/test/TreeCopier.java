@@ -0,0 +1,189 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Checksum;
+
+/**
+ * 并行复制整个目录树。
+ * 只遍历一次目录树：遍历线程负责创建目录，文件交给ForkJoinPool并发复制。
+ * 同时在途的字节数和文件数都有上限，既不会耗尽文件描述符，
+ * 公平信号量也保证大文件不会被源源不断的小文件饿死。
+ */
+public class TreeCopier implements AutoCloseable {
+
+    //字节预算以KB为单位换算成信号量的许可
+    private static final int UNIT = 1024;
+
+    private final ForkJoinPool pool;
+    private final int maxInFlightFiles;
+    private final int budgetUnits;
+    private final Semaphore bytes;
+    private final Semaphore files;
+
+    public TreeCopier() {
+        this(Runtime.getRuntime().availableProcessors(), 64L * 1024 * 1024, 256);
+    }
+
+    /**
+     * @param parallelism      并发复制的线程数
+     * @param maxInFlightBytes 同时在复制中的文件的最大总字节数
+     * @param maxInFlightFiles 同时打开的文件的最大数量
+     */
+    public TreeCopier(int parallelism, long maxInFlightBytes, int maxInFlightFiles) {
+        if (parallelism <= 0 || maxInFlightBytes <= 0 || maxInFlightFiles <= 0) {
+            throw new IllegalArgumentException("limits must be positive");
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.maxInFlightFiles = maxInFlightFiles;
+        this.budgetUnits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInFlightBytes / UNIT));
+        //公平模式：先排队的大文件拿到预算之前，后来的小文件不能插队
+        this.bytes = new Semaphore(budgetUnits, true);
+        this.files = new Semaphore(maxInFlightFiles, true);
+    }
+
+    //把src目录树复制到target下，返回复制结果
+    public Result copyTree(Path src, Path target) throws IOException {
+        return copyTree(src, target, IoScheduler.shared().defaultJob());
+    }
+
+    //复制目录树，所有文件的读写都受job的限速和优先级控制
+    public Result copyTree(Path src, Path target, IoScheduler.Job job) throws IOException {
+        return copyTree(src, target, job, null);
+    }
+
+    /**
+     * 复制目录树，同时计算每个文件的CRC32C记入manifest，名字是相对src的路径。
+     * 写出清单后可以用ChecksumManifest.verifyTree()校验target。
+     */
+    public Result copyTree(Path src, Path target, IoScheduler.Job job, ChecksumManifest manifest)
+            throws IOException {
+        if (!Files.isDirectory(src)) {
+            throw new IOException("Not a directory: " + src);
+        }
+        long start = System.nanoTime();
+        AtomicLong fileCount = new AtomicLong();
+        AtomicLong byteCount = new AtomicLong();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+
+        try {
+            Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(src.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (failure.get() != null) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile()) {
+                        String name = manifest == null ? null : ParallelZipper.entryName(src, file);
+                        submit(file, target.resolve(src.relativize(file)), attrs.size(), job, manifest, name,
+                                fileCount, byteCount, failure);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            //拿回全部许可，说明所有复制任务都已结束
+            files.acquireUninterruptibly(maxInFlightFiles);
+            files.release(maxInFlightFiles);
+        }
+
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+        return new Result(fileCount.get(), byteCount.get(), System.nanoTime() - start);
+    }
+
+    private void submit(Path from, Path to, long size, IoScheduler.Job job, ChecksumManifest manifest,
+                        String name, AtomicLong fileCount, AtomicLong byteCount,
+                        AtomicReference<IOException> failure) throws IOException {
+        //超过总预算的大文件只占满预算，否则永远拿不到许可
+        int units = (int) Math.min(budgetUnits, Math.max(1, (size + UNIT - 1) / UNIT));
+        try {
+            files.acquire();
+            bytes.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying " + from, e);
+        }
+        pool.execute(() -> {
+            try {
+                Checksum crc = manifest == null ? null : ChecksumManifest.newChecksum();
+                CopyEngine.CopyResult r = CopyEngine.copy(from, to, job, crc);
+                if (manifest != null) {
+                    manifest.put(name, r.getBytes(), crc.getValue());
+                }
+                fileCount.incrementAndGet();
+                byteCount.addAndGet(r.getBytes());
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                bytes.release(units);
+                files.release();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一次目录树复制的结果。
+     */
+    public static final class Result {
+
+        private final long files;
+        private final long bytes;
+        private final long nanos;
+
+        Result(long files, long bytes, long nanos) {
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = nanos / 1_000_000_000.0;
+            return String.format("copied %d files, %d bytes in %.3f ms (%.2f MB/s, %.0f files/s)",
+                    files, bytes, nanos / 1_000_000.0,
+                    seconds > 0 ? bytes / (1024.0 * 1024.0) / seconds : 0,
+                    seconds > 0 ? files / seconds : 0);
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 带缓存的目录树扫描器。
+ * 第一次扫描用Files.walkFileTree()，遍历时就拿到了BasicFileAttributes，不必对每一项再调用isFile()/isDirectory()。
+ * 扫描结果保存在内存快照里，并把每个目录注册到WatchService，
+ * 之后每次列目录只需要处理期间发生的变更事件，增量更新快照。
+ */
+public class TreeScanner implements AutoCloseable {
+
+    static final int DEFAULT_MAX_DEPTH = 64;
+
+    //最多缓存的扫描器个数，每个扫描器都占着一个WatchService
+    static final int MAX_CACHED = 8;
+
+    //按根目录缓存的扫描器，供Test.list()反复使用；按访问顺序排列，超出上限时关闭最久未用的
+    private static final Map<Path, TreeScanner> SCANNERS = new LinkedHashMap<>(16, 0.75f, true);
+
+    //预先生成的缩进，不用每一行都重新拼接
+    private static final String[] INDENTS = new String[DEFAULT_MAX_DEPTH + 2];
+
+    static {
+        INDENTS[0] = "";
+        for (int i = 1; i < INDENTS.length; i++) {
+            INDENTS[i] = INDENTS[i - 1] + "  ";
+        }
+    }
+
+    private final Path root;
+    private final int maxDepth;
+    private WatchService watcher;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, Node> dirs = new HashMap<>();
+    private Node snapshot;
+
+    public TreeScanner(Path root) {
+        this(root, DEFAULT_MAX_DEPTH);
+    }
+
+    public TreeScanner(Path root, int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be positive");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.maxDepth = maxDepth;
+    }
+
+    //取得某个根目录共享的扫描器
+    public static TreeScanner of(Path root) {
+        Path key = root.toAbsolutePath().normalize();
+        TreeScanner scanner;
+        TreeScanner eldest = null;
+        synchronized (SCANNERS) {
+            scanner = SCANNERS.get(key);
+            if (scanner == null) {
+                scanner = new TreeScanner(key);
+                SCANNERS.put(key, scanner);
+                if (SCANNERS.size() > MAX_CACHED) {
+                    Iterator<TreeScanner> it = SCANNERS.values().iterator();
+                    eldest = it.next();
+                    it.remove();
+                }
+            }
+        }
+        //在锁外关闭，close()会先锁扫描器再锁SCANNERS
+        if (eldest != null) {
+            eldest.close();
+        }
+        return scanner;
+    }
+
+    //关闭并清空所有缓存的扫描器
+    public static void closeAll() {
+        List<TreeScanner> scanners;
+        synchronized (SCANNERS) {
+            scanners = new ArrayList<>(SCANNERS.values());
+            SCANNERS.clear();
+        }
+        for (TreeScanner scanner : scanners) {
+            scanner.close();
+        }
+    }
+
+    //返回最新的快照，第一次调用时完整扫描，之后只处理变更事件
+    public synchronized Node scan() throws IOException {
+        if (snapshot == null) {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                watcher = null;
+            }
+            snapshot = scanTree(root, 0, null);
+        } else if (watcher == null) {
+            //无法监听变更时，只能每次重新扫描
+            dirs.clear();
+            snapshot = scanTree(root, 0, null);
+        } else {
+            applyEvents();
+        }
+        return snapshot;
+    }
+
+    //按层次打印到TextSink，level是根目录下第一层的缩进；名字直接编码进线程的缓冲区，不经过PrintStream的锁
+    public void print(TextSink out, int level) throws IOException {
+        Node node = scan();
+        synchronized (this) {
+            print(out, node, level);
+        }
+    }
+
+    private void print(TextSink out, Node dir, int level) {
+        String indent = indent(level);
+        for (Node child : dir.children.values()) {
+            out.print(indent).print(child.name);
+            if (child.directory) {
+                out.println('/');
+                print(out, child, level + 1);
+            } else {
+                out.println();
+            }
+        }
+    }
+
+    private static String indent(int level) {
+        if (level < INDENTS.length) {
+            return INDENTS[level];
+        }
+        return INDENTS[INDENTS.length - 1] + indent(level - INDENTS.length + 1);
+    }
+
+    //扫描以dir为根的子树，depth是dir相对于root的深度
+    private Node scanTree(Path dir, int depth, Node parent) throws IOException {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node[] top = new Node[1];
+        Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), maxDepth - depth,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                        Node node = new Node(name(d), attrs);
+                        attach(stack.peek(), node);
+                        if (top[0] == null) {
+                            top[0] = node;
+                        }
+                        stack.push(node);
+                        dirs.put(d, node);
+                        watch(d);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        //到达深度上限的目录也从这里返回，只记录不展开
+                        Node node = new Node(name(file), attrs);
+                        attach(stack.peek(), node);
+                        if (top[0] == null) {
+                            top[0] = node;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        //没有权限或者已被删除的项直接跳过
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                        stack.pop();
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        if (top[0] == null) {
+            throw new NoSuchFileException(dir.toString());
+        }
+        attach(parent, top[0]);
+        return top[0];
+    }
+
+    private static void attach(Node parent, Node child) {
+        if (parent != null) {
+            parent.children.put(child.name, child);
+        }
+    }
+
+    private String name(Path p) {
+        Path name = p.getFileName();
+        return name == null ? p.toString() : name.toString();
+    }
+
+    private void watch(Path dir) {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            keys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        } catch (IOException e) {
+            //监听数量超过系统上限等情况：放弃增量更新，以后每次都重新扫描
+            closeWatcher();
+        }
+    }
+
+    //处理积累的变更事件
+    private void applyEvents() throws IOException {
+        WatchKey key;
+        while (watcher != null && (key = watcher.poll()) != null) {
+            Path dir = keys.get(key);
+            Node node = dir == null ? null : dirs.get(dir);
+            if (node != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        //事件丢失，重新扫描整个目录
+                        rescan(dir, node);
+                        break;
+                    }
+                    update(dir, node, (Path) event.context());
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+        if (watcher == null) {
+            dirs.clear();
+            snapshot = scanTree(root, 0, null);
+        }
+    }
+
+    //某个子项被创建、修改或删除
+    private void update(Path dir, Node node, Path name) throws IOException {
+        Path child = dir.resolve(name);
+        Node old = node.children.get(name.toString());
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            attrs = null;
+        }
+        if (attrs == null) {
+            if (old != null) {
+                node.children.remove(old.name);
+                forget(child);
+            }
+        } else if (attrs.isDirectory() && (old == null || !old.directory)) {
+            int depth = root.relativize(child).getNameCount();
+            if (depth < maxDepth) {
+                scanTree(child, depth, node);
+            } else {
+                attach(node, new Node(old == null ? name.toString() : old.name, attrs));
+            }
+        } else if (old == null || old.directory != attrs.isDirectory()) {
+            if (old != null) {
+                forget(child);
+            }
+            attach(node, new Node(name.toString(), attrs));
+        } else {
+            old.size = attrs.size();
+            old.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    private void rescan(Path dir, Node node) throws IOException {
+        forget(dir);
+        Node parent = dir.equals(root) ? null : dirs.get(dir.getParent());
+        if (parent != null) {
+            parent.children.remove(node.name);
+        }
+        Node fresh = scanTree(dir, root.relativize(dir).getNameCount(), parent);
+        if (dir.equals(root)) {
+            snapshot = fresh;
+        }
+    }
+
+    //删除dir及其子目录的快照和监听
+    private void forget(Path dir) {
+        dirs.keySet().removeIf(p -> p.startsWith(dir));
+        Iterator<Map.Entry<WatchKey, Path>> it = keys.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<WatchKey, Path> e = it.next();
+            if (e.getValue().startsWith(dir)) {
+                e.getKey().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private void closeWatcher() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            watcher = null;
+            keys.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeWatcher();
+        synchronized (SCANNERS) {
+            SCANNERS.remove(root, this);
+        }
+    }
+
+    /**
+     * 快照中的一个文件或目录。
+     */
+    public static final class Node {
+
+        final String name;
+        final boolean directory;
+        long size;
+        long lastModified;
+        //按名字排序的子项，只有目录才有
+        final TreeMap<String, Node> children;
+
+        Node(String name, BasicFileAttributes attrs) {
+            this.name = name;
+            this.directory = attrs.isDirectory();
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.children = directory ? new TreeMap<>() : null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public Collection<Node> getChildren() {
+            return directory ? Collections.unmodifiableCollection(children.values()) : Collections.emptyList();
+        }
+
+        @Override
+        public String toString() {
+            return directory ? name + "/" : name;
+        }
+    }
+
+}
@@ -0,0 +1,353 @@
+package com.me.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 随机访问的zip解压器。
+ * 和ZipInputStream从头到尾顺序读取不同，这里先读取文件末尾的中央目录，
+ * 然后只把需要的条目映射到内存（MappedByteBuffer）解压，直接写到磁盘。
+ * 可以只解压指定的条目，也可以并行解压全部条目。
+ * 解压路径跑出目标目录的条目（zip slip）会被拒绝。
+ */
+public class ZipExtractor implements AutoCloseable {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD64_SIG = 0x06064b50;
+    private static final int EOCD64_LOCATOR_SIG = 0x07064b50;
+    private static final int CENTRAL_SIG = 0x02014b50;
+    private static final int LOCAL_SIG = 0x04034b50;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    //单次映射的最大长度，MappedByteBuffer最多只能映射2GB
+    private static final long MAX_MAP = 1L << 30;
+    private static final int CHUNK = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    public ZipExtractor(Path zip) throws IOException {
+        this.channel = FileChannel.open(zip, StandardOpenOption.READ);
+        try {
+            this.entries = Collections.unmodifiableMap(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    //按名字查找条目，不存在时返回null
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    //解压指定名字的条目到dir目录下
+    public Path extract(String name, Path dir) throws IOException {
+        Entry e = entries.get(name);
+        if (e == null) {
+            throw new ZipException("No such entry: " + name);
+        }
+        return extract(e, dir);
+    }
+
+    //解压一个条目，返回写出的文件或目录
+    public Path extract(Entry e, Path dir) throws IOException {
+        Path target = resolve(dir, e.name);
+        if (e.isDirectory()) {
+            Files.createDirectories(target);
+            return target;
+        }
+        Path parent = target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long crc = e.method == 0 ? copyStored(e, out) : inflate(e, out);
+            if (crc != e.crc) {
+                throw new ZipException("CRC mismatch: " + e.name);
+            }
+        }
+        return target;
+    }
+
+    //用parallelism个线程并行解压全部条目
+    public void extractAll(Path dir, int parallelism) throws IOException {
+        List<Entry> files = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            //先检查所有路径并创建目录，避免解压到一半才发现非法条目
+            Path target = resolve(dir, e.name);
+            if (e.isDirectory()) {
+                Files.createDirectories(target);
+            } else {
+                files.add(e);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> files.parallelStream().forEach(e -> {
+                try {
+                    extract(e, dir);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //拒绝绝对路径和含有..跳出目标目录的条目
+    static Path resolve(Path dir, String name) throws ZipException {
+        Path base = dir.toAbsolutePath().normalize();
+        Path target = base.resolve(name).normalize();
+        if (!target.startsWith(base) || target.equals(base)) {
+            throw new ZipException("Entry is outside of the target dir: " + name);
+        }
+        return target;
+    }
+
+    //未压缩的条目：映射后直接写出
+    private long copyStored(Entry e, FileChannel out) throws IOException {
+        CRC32 crc = new CRC32();
+        long start = dataOffset(e);
+        for (long pos = 0; pos < e.compressedSize; pos += MAX_MAP) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start + pos,
+                    Math.min(MAX_MAP, e.compressedSize - pos));
+            crc.update(mapped.duplicate());
+            while (mapped.hasRemaining()) {
+                out.write(mapped);
+            }
+        }
+        return crc.getValue();
+    }
+
+    //deflate压缩的条目：映射后交给Inflater直接解压
+    private long inflate(Entry e, FileChannel out) throws IOException {
+        CRC32 crc = new CRC32();
+        Inflater inflater = new Inflater(true);
+        ByteBuffer buffer = BufferPool.shared().acquireDirect(CHUNK);
+        long start = dataOffset(e);
+        long written = 0;
+        try {
+            for (long pos = 0; pos < e.compressedSize && !inflater.finished(); pos += MAX_MAP) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start + pos,
+                        Math.min(MAX_MAP, e.compressedSize - pos));
+                inflater.setInput(mapped);
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    buffer.clear();
+                    if (inflater.inflate(buffer) == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("Invalid deflate data: " + e.name);
+                    }
+                    buffer.flip();
+                    written += buffer.remaining();
+                    crc.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+            }
+            if (!inflater.finished() || written != e.size) {
+                throw new ZipException("Truncated entry: " + e.name);
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException("Invalid deflate data: " + e.name + ": " + ex.getMessage());
+        } finally {
+            inflater.end();
+            BufferPool.shared().release(buffer);
+        }
+        return crc.getValue();
+    }
+
+    //数据区在本地文件头之后，本地头的扩展字段长度可能和中央目录里的不同，必须重新读取
+    private long dataOffset(Entry e) throws IOException {
+        ByteBuffer header = read(e.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_SIG) {
+            throw new ZipException("Bad local header: " + e.name);
+        }
+        int nameLen = header.getShort(26) & 0xFFFF;
+        int extraLen = header.getShort(28) & 0xFFFF;
+        return e.localHeaderOffset + 30 + nameLen + extraLen;
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        //中央目录结束记录在文件末尾，后面可能跟着最长65535字节的注释
+        int tailLen = (int) Math.min(fileSize, 22 + 0xFFFF);
+        ByteBuffer tail = read(fileSize - tailLen, tailLen);
+        int eocd = -1;
+        for (int i = tailLen - 22; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("Not a zip file");
+        }
+        long count = tail.getShort(eocd + 10) & 0xFFFF;
+        long cdSize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long cdOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+
+        //ZIP64：结束记录前面是ZIP64 end of central directory locator
+        if (eocd >= 20 && tail.getInt(eocd - 20) == EOCD64_LOCATOR_SIG) {
+            ByteBuffer eocd64 = read(tail.getLong(eocd - 20 + 8), 56);
+            if (eocd64.getInt(0) != EOCD64_SIG) {
+                throw new ZipException("Bad ZIP64 end of central directory");
+            }
+            count = eocd64.getLong(32);
+            cdSize = eocd64.getLong(40);
+            cdOffset = eocd64.getLong(48);
+        }
+        if (cdSize > Integer.MAX_VALUE || cdOffset + cdSize > fileSize) {
+            throw new ZipException("Bad central directory");
+        }
+
+        ByteBuffer cd = channel.map(FileChannel.MapMode.READ_ONLY, cdOffset, cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Entry> result = new LinkedHashMap<>();
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(p) != CENTRAL_SIG) {
+                throw new ZipException("Bad central directory entry");
+            }
+            int flags = cd.getShort(p + 8) & 0xFFFF;
+            int method = cd.getShort(p + 10) & 0xFFFF;
+            long crc = cd.getInt(p + 16) & ZIP64_MAGIC;
+            long csize = cd.getInt(p + 20) & ZIP64_MAGIC;
+            long size = cd.getInt(p + 24) & ZIP64_MAGIC;
+            int nameLen = cd.getShort(p + 28) & 0xFFFF;
+            int extraLen = cd.getShort(p + 30) & 0xFFFF;
+            int commentLen = cd.getShort(p + 32) & 0xFFFF;
+            long offset = cd.getInt(p + 42) & ZIP64_MAGIC;
+
+            byte[] nameBytes = new byte[nameLen];
+            cd.get(p + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            //ZIP64扩展字段只包含值为0xFFFFFFFF的那几项，顺序固定
+            int extra = p + 46 + nameLen;
+            int extraEnd = extra + extraLen;
+            while (extra + 4 <= extraEnd) {
+                int id = cd.getShort(extra) & 0xFFFF;
+                int len = cd.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int q = extra + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = cd.getLong(q);
+                        q += 8;
+                    }
+                    if (csize == ZIP64_MAGIC) {
+                        csize = cd.getLong(q);
+                        q += 8;
+                    }
+                    if (offset == ZIP64_MAGIC) {
+                        offset = cd.getLong(q);
+                    }
+                }
+                extra += 4 + len;
+            }
+            p = extraEnd + commentLen;
+
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted entry is not supported: " + name);
+            }
+            if (method != 0 && method != 8) {
+                throw new ZipException("Unsupported compression method " + method + ": " + name);
+            }
+            result.put(name, new Entry(name, method, crc, csize, size, offset));
+        }
+        return result;
+    }
+
+    private ByteBuffer read(long position, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 中央目录中的一个条目。
+     */
+    public static final class Entry {
+
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
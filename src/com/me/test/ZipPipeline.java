@@ -0,0 +1,351 @@
+package com.me.test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 流水线式地解压并处理zip包中的条目，条目内容不落盘。
+ * 调用线程顺序读取zip流，把每个条目解压成64KB的块放进该条目的有界队列；
+ * 用户的处理函数在线程池中运行，通过EntryStream按流或按块读取条目内容。
+ * 处理当前条目的同时，调用线程已经在解压后面的条目，最多有parallelism个条目同时在处理，
+ * 每个条目最多缓冲queueChunks个块，内存占用有固定的上限。
+ */
+public class ZipPipeline implements AutoCloseable {
+
+    static final int CHUNK = 64 * 1024;
+    static final int DEFAULT_QUEUE_CHUNKS = 16;
+
+    //队列满时每隔这么久检查一次处理函数是否已经放弃读取
+    private static final long OFFER_WAIT_MILLIS = 10;
+
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final int queueChunks;
+
+    public ZipPipeline() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CHUNKS);
+    }
+
+    /**
+     * @param parallelism 同时处理的条目数
+     * @param queueChunks 每个条目最多缓冲的块数
+     */
+    public ZipPipeline(int parallelism, int queueChunks) {
+        if (parallelism <= 0 || queueChunks <= 0) {
+            throw new IllegalArgumentException("parallelism and queueChunks must be positive");
+        }
+        this.pool = Executors.newFixedThreadPool(parallelism);
+        this.parallelism = parallelism;
+        this.queueChunks = queueChunks;
+    }
+
+    public <R> List<R> process(Path zip, EntryHandler<R> handler) throws IOException {
+        return process(Files.newInputStream(zip), handler);
+    }
+
+    /**
+     * 依次把zip中的每个文件条目交给handler处理（目录条目被跳过），返回按条目顺序排列的结果，zip流会被关闭。
+     * 任何一个handler抛出异常后不再读取新的条目，等已经开始的条目结束后抛出第一个异常。
+     */
+    public <R> List<R> process(InputStream zip, EntryHandler<R> handler) throws IOException {
+        Semaphore permits = new Semaphore(parallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<R>> futures = new ArrayList<>();
+        IOException readFailure = null;
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(zip, CHUNK))) {
+            ZipEntry e;
+            while (failure.get() == null && (e = in.getNextEntry()) != null) {
+                if (e.isDirectory()) {
+                    continue;
+                }
+                permits.acquire();
+                if (failure.get() != null) {
+                    permits.release();
+                    break;
+                }
+                ZipEntry entry = e;
+                EntryStream stream = new EntryStream(entry, queueChunks);
+                futures.add(pool.submit(() -> {
+                    try (EntryStream s = stream) {
+                        return handler.process(entry, s);
+                    } catch (Exception | Error t) {
+                        failure.compareAndSet(null, t);
+                        throw t;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+                try {
+                    pump(in, stream);
+                } catch (IOException ex) {
+                    //zip流本身出错，通知正在读这个条目的处理函数
+                    stream.fail();
+                    throw ex;
+                }
+            }
+        } catch (IOException ex) {
+            readFailure = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            readFailure = new InterruptedIOException("Interrupted");
+        }
+
+        List<R> results = new ArrayList<>(futures.size());
+        IOException first = readFailure;
+        for (Future<R> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            } catch (ExecutionException ex) {
+                if (first == null) {
+                    first = unwrap(ex.getCause());
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+        return results;
+    }
+
+    //把当前条目解压成块放入队列，最后放入结束标记
+    private static void pump(ZipInputStream in, EntryStream stream) throws IOException {
+        while (true) {
+            byte[] buf = BufferPool.shared().acquire(CHUNK);
+            int n;
+            try {
+                n = in.readNBytes(buf, 0, CHUNK);
+            } catch (IOException e) {
+                BufferPool.shared().release(buf);
+                throw e;
+            }
+            if (n == 0) {
+                BufferPool.shared().release(buf);
+                break;
+            }
+            stream.deliver(new Chunk(buf, n));
+            if (n < CHUNK) {
+                break;
+            }
+        }
+        stream.deliver(Chunk.END);
+    }
+
+    private static IOException unwrap(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        }
+        if (t instanceof UncheckedIOException) {
+            return ((UncheckedIOException) t).getCause();
+        }
+        return new IOException(t);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * 处理一个条目的函数，在线程池中运行。
+     */
+    @FunctionalInterface
+    public interface EntryHandler<R> {
+
+        /**
+         * @param entry 条目的名字、时间等信息；用ZipInputStream读取时长度可能是-1
+         * @param data  条目解压后的内容，函数返回后自动关闭，没有读完的部分被丢弃
+         */
+        R process(ZipEntry entry, EntryStream data) throws Exception;
+    }
+
+    /**
+     * 解压好的一块数据，数组借自BufferPool。
+     */
+    private static final class Chunk {
+
+        static final Chunk END = new Chunk(null, -1);
+        static final Chunk FAILED = new Chunk(null, -1);
+
+        final byte[] data;
+        final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 一个条目的内容。既可以当作InputStream读取，也可以用nextChunk()逐块读取，不复制数据。
+     * 只能由一个线程读取。
+     */
+    public static final class EntryStream extends InputStream {
+
+        private final ZipEntry entry;
+        private final BlockingQueue<Chunk> queue;
+        private Chunk current;
+        private int pos;
+        private boolean eof;
+        private volatile boolean closed;
+
+        EntryStream(ZipEntry entry, int capacity) {
+            this.entry = entry;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public ZipEntry getEntry() {
+            return entry;
+        }
+
+        //由读取zip的线程调用；队列满时等待，处理函数已经关闭时直接丢弃
+        void deliver(Chunk chunk) throws InterruptedIOException {
+            try {
+                while (!closed) {
+                    if (queue.offer(chunk, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            } finally {
+                if (closed) {
+                    //close()之后放进来的块也要归还
+                    drain();
+                }
+            }
+            release(chunk);
+        }
+
+        //zip流出错时由读取zip的线程调用，丢弃还没读的块，让处理函数的下一次读取抛出异常
+        void fail() {
+            drain();
+            queue.offer(Chunk.FAILED);
+        }
+
+        /**
+         * 下一块数据的只读视图，在下一次调用nextChunk()或read()之前有效；没有更多数据时返回null。
+         * 当前块中已经被read()读取的部分不会再返回。
+         */
+        public ByteBuffer nextChunk() throws IOException {
+            if (current != null && pos < current.length) {
+                ByteBuffer b = ByteBuffer.wrap(current.data, pos, current.length - pos).asReadOnlyBuffer();
+                pos = current.length;
+                return b;
+            }
+            if (!advance()) {
+                return null;
+            }
+            pos = current.length;
+            return ByteBuffer.wrap(current.data, 0, current.length).asReadOnlyBuffer();
+        }
+
+        //归还当前块，取下一块，没有更多数据时返回false
+        private boolean advance() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (eof) {
+                return false;
+            }
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            Chunk next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+            if (next == Chunk.FAILED) {
+                eof = true;
+                throw new IOException("Zip stream failed while reading " + entry.getName());
+            }
+            if (next == Chunk.END) {
+                eof = true;
+                return false;
+            }
+            current = next;
+            pos = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((current == null || pos == current.length) && !advance()) {
+                return -1;
+            }
+            return current.data[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if ((current == null || pos == current.length) && !advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current.data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - pos;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            drain();
+        }
+
+        private void drain() {
+            Chunk c;
+            while ((c = queue.poll()) != null) {
+                release(c);
+            }
+        }
+
+        private static void release(Chunk c) {
+            if (c.data != null) {
+                BufferPool.shared().release(c.data);
+            }
+        }
+    }
+
+}